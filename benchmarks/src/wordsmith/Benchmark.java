@@ -0,0 +1,22 @@
+package wordsmith;
+
+/**
+ * One microbenchmark: setUp() runs once before timing, then run() is called repeatedly. Return
+ * something derived from the work done so the JIT can't throw it away.
+ */
+public abstract class Benchmark {
+  private final String name;
+
+  public Benchmark(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setUp() throws Exception {
+  }
+
+  public abstract Object run() throws Exception;
+}
@@ -0,0 +1,144 @@
+package wordsmith;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Inputs for the benchmarks: the tweets bundled with the TwitterInference example, synthetic
+ * documents over a Zipf-distributed vocabulary, and web pages.
+ */
+public class BenchmarkCorpora {
+  public static final String TWEET_DIRECTORY = "examples/TwitterInference/data";
+  public static final String HTML_DIRECTORY_PROPERTY = "benchmark.html";
+
+  /**
+   * The text of every tweet in every feed of the TwitterInference example.
+   */
+  public static ArrayList<String> tweets() throws Exception {
+    File[] feeds = new File(TWEET_DIRECTORY).listFiles();
+    if (feeds == null) {
+      throw new IllegalStateException("Run the benchmarks from the project root; couldn't find " +
+                                      TWEET_DIRECTORY);
+    }
+    ArrayList<String> texts = new ArrayList<String>();
+    for (int f = 0; f < feeds.length; f++) {
+      if (!feeds[f].getName().endsWith(".xml")) {
+        continue;
+      }
+      TweetXmlReader reader = new TweetXmlReader(feeds[f]);
+      while (reader.next()) {
+        texts.add(reader.getText());
+      }
+      reader.close();
+    }
+    return texts;
+  }
+
+  /**
+   * Saved web pages (.htm and .html files) from the directory named by the benchmark.html system
+   * property, or if it isn't set, pages in the shape of a typical blog, with a head full of CSS
+   * and scripts, navigation, and the tweets as posts.
+   */
+  public static ArrayList<String> html() throws Exception {
+    String directory = System.getProperty(HTML_DIRECTORY_PROPERTY, "");
+    if (directory.length() > 0) {
+      File[] files = new File(directory).listFiles();
+      if (files == null) {
+        throw new IllegalStateException("Couldn't find the HTML directory " + directory);
+      }
+      ArrayList<String> pages = new ArrayList<String>();
+      for (int i = 0; i < files.length; i++) {
+        String name = files[i].getName().toLowerCase();
+        if (name.endsWith(".htm") || name.endsWith(".html")) {
+          pages.add(new String(readFile(files[i]), "UTF-8"));
+        }
+      }
+      return pages;
+    }
+
+    ArrayList<String> tweets = tweets();
+    ArrayList<String> pages = new ArrayList<String>();
+    StringBuilder page = new StringBuilder();
+    for (int start = 0; start < tweets.size(); start += 20) {
+      page.setLength(0);
+      page.append("<!DOCTYPE html>\n<html lang=\"en\"><head><meta charset=\"utf-8\">")
+          .append("<title>Posts &amp; links &#8212; page ").append(start / 20).append("</title>")
+          .append("<style type=\"text/css\">body { font: 13px/1.4 Georgia, serif; }\n")
+          .append(".post > p a:hover { color: #c00; } .nav li { display: inline; }</style>")
+          .append("<script>var _gaq = _gaq || []; _gaq.push(['_trackPageview']);\n")
+          .append("if (a < b && document.cookie) { window.onload = function() {}; }</script>")
+          .append("</head>\n<body class=\"home blog\"><!-- header -->")
+          .append("<ul class=\"nav\"><li><a href=\"/\" title=\"Home\">Home</a></li>")
+          .append("<li><a href=\"/about?x=1&amp;y=2\">About</a></li></ul>\n");
+      for (int i = start; i < Math.min(start + 20, tweets.size()); i++) {
+        page.append("<div class=\"post\" id=\"post-").append(i).append("\"><p>")
+            .append(tweets.get(i).replace("&", "&amp;").replace("<", "&lt;"))
+            .append("</p><span class=\"meta\">Posted&nbsp;by <a href='/u'>me</a> &raquo;")
+            .append("</span></div>\n");
+      }
+      page.append("<div id=\"footer\">&copy; 2008 &mdash; <em>all</em> rights</div>")
+          .append("<script type=\"text/javascript\" src=\"/js/app.js\"></script>")
+          .append("</body></html>\n");
+      pages.add(page.toString());
+    }
+    return pages;
+  }
+
+  private static byte[] readFile(File file) throws Exception {
+    byte[] contents = new byte[(int) file.length()];
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      in.readFully(contents);
+    } finally {
+      in.close();
+    }
+    return contents;
+  }
+
+  /**
+   * Documents of around documentLength words drawn from a vocabulary of vocabularySize words
+   * whose frequencies follow Zipf's law. Every tenth word is a common English stopword.
+   */
+  public static ArrayList<String> synthetic(int numDocuments, int documentLength,
+                                            int vocabularySize, long seed) {
+    Random random = new Random(seed);
+    double[] cumulative = new double[vocabularySize];
+    double total = 0;
+    for (int i = 0; i < vocabularySize; i++) {
+      total += 1.0 / (i + 1);
+      cumulative[i] = total;
+    }
+
+    ArrayList<String> documents = new ArrayList<String>(numDocuments);
+    StringBuilder document = new StringBuilder();
+    for (int d = 0; d < numDocuments; d++) {
+      document.setLength(0);
+      int length = documentLength / 2 + random.nextInt(documentLength + 1);
+      for (int w = 0; w < length; w++) {
+        if (w % 10 == 9) {
+          document.append(Stopwords.malletEnglishStopwords[
+              random.nextInt(Stopwords.malletEnglishStopwords.length)]);
+        } else {
+          int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+          appendWord(document, index < 0 ? -index - 1 : index);
+        }
+        document.append(' ');
+      }
+      documents.add(document.toString());
+    }
+    return documents;
+  }
+
+  // Mallet's default tokenizer only keeps letters, so spell word i out in base 26.
+  static void appendWord(StringBuilder text, int i) {
+    text.append("zq");
+    do {
+      text.append((char) ('a' + i % 26));
+      i /= 26;
+    } while (i > 0);
+  }
+}
@@ -0,0 +1,87 @@
+package wordsmith;
+
+import java.util.ArrayList;
+
+/**
+ * Runs microbenchmarks JMH-style: a few timed warmup rounds to let the JIT settle, then measured
+ * rounds of a fixed duration each, reporting the mean time per operation and its spread across
+ * rounds.
+ *
+ * Run all of them with "ant -f resources/build.xml benchmark", or directly:
+ *
+ * <pre>
+ * java -cp bin:bench-bin:libs/* wordsmith.BenchmarkRunner [name-filter]
+ * </pre>
+ *
+ * Only benchmarks whose name contains the filter are run.
+ */
+public class BenchmarkRunner {
+  private int warmupRounds = 3;
+  private int measuredRounds = 5;
+  private long roundMillis = 1000;
+
+  // Results go here so no benchmark's work is dead code.
+  private int sink = 0;
+
+  public BenchmarkRunner setRounds(int warmupRounds, int measuredRounds, long roundMillis) {
+    this.warmupRounds = warmupRounds;
+    this.measuredRounds = measuredRounds;
+    this.roundMillis = roundMillis;
+    return this;
+  }
+
+  /**
+   * Runs one benchmark and returns the mean nanoseconds per operation.
+   */
+  public double run(Benchmark benchmark) throws Exception {
+    benchmark.setUp();
+    for (int round = 0; round < warmupRounds; round++) {
+      runRound(benchmark);
+    }
+    double[] nanosPerOp = new double[measuredRounds];
+    double mean = 0;
+    for (int round = 0; round < measuredRounds; round++) {
+      nanosPerOp[round] = runRound(benchmark);
+      mean += nanosPerOp[round] / measuredRounds;
+    }
+    double variance = 0;
+    for (int round = 0; round < measuredRounds; round++) {
+      variance += (nanosPerOp[round] - mean) * (nanosPerOp[round] - mean) / measuredRounds;
+    }
+    System.out.println(String.format("%-60s %14.1f ns/op  +- %.1f", benchmark.getName(), mean,
+                                     Math.sqrt(variance)));
+    return mean;
+  }
+
+  private double runRound(Benchmark benchmark) throws Exception {
+    long deadline = System.nanoTime() + roundMillis * 1000000L;
+    long start = System.nanoTime();
+    long ops = 0;
+    long now;
+    do {
+      Object result = benchmark.run();
+      sink += result == null ? 0 : System.identityHashCode(result);
+      ops++;
+      now = System.nanoTime();
+    } while (now < deadline);
+    return (double) (now - start) / ops;
+  }
+
+  public static void main(String[] args) throws Exception {
+    String filter = args.length > 0 ? args[0] : "";
+    ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    benchmarks.addAll(PipeBenchmarks.all());
+    benchmarks.addAll(HtmlBenchmarks.all());
+    benchmarks.addAll(ResultBenchmarks.all());
+
+    BenchmarkRunner runner = new BenchmarkRunner();
+    for (int i = 0; i < benchmarks.size(); i++) {
+      if (benchmarks.get(i).getName().contains(filter)) {
+        runner.run(benchmarks.get(i));
+      }
+    }
+    if (runner.sink == 42) {
+      System.out.println();
+    }
+  }
+}
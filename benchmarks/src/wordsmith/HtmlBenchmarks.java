@@ -0,0 +1,47 @@
+package wordsmith;
+
+import java.util.ArrayList;
+
+import cc.mallet.pipe.CharSequenceRemoveHTML;
+import cc.mallet.pipe.Pipe;
+import cc.mallet.types.Instance;
+
+/**
+ * Per-page cost of stripping HTML: Mallet's CharSequenceRemoveHTML, which removeHtmlFromDocuments
+ * used to use, against CharSequenceStripHTML, which replaced it. Set -Dbenchmark.html to a
+ * directory of saved pages to run them on real HTML (see BenchmarkCorpora.html).
+ */
+public class HtmlBenchmarks {
+
+  public static ArrayList<Benchmark> all() throws Exception {
+    ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    ArrayList<String> pages = BenchmarkCorpora.html();
+    benchmarks.add(new HtmlBenchmark("CharSequenceRemoveHTML.pipe", pages,
+                                     new CharSequenceRemoveHTML()));
+    benchmarks.add(new HtmlBenchmark("CharSequenceStripHTML.pipe", pages,
+                                     new CharSequenceStripHTML()));
+    return benchmarks;
+  }
+
+  private static class HtmlBenchmark extends Benchmark {
+    final ArrayList<String> pages;
+    final Pipe pipe;
+    int next = 0;
+
+    HtmlBenchmark(String pipeName, ArrayList<String> pages, Pipe pipe) {
+      super(pipeName + " [html]");
+      this.pages = pages;
+      this.pipe = pipe;
+    }
+
+    public void setUp() {
+      if (pages.isEmpty()) {
+        throw new IllegalStateException("No .htm or .html pages to run on");
+      }
+    }
+
+    public Object run() {
+      return pipe.pipe(new Instance(pages.get(next++ % pages.size()), null, null, null)).getData();
+    }
+  }
+}
@@ -0,0 +1,319 @@
+package wordsmith;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * End-to-end benchmark: ingest a corpus generated by SyntheticCorpus, prune and estimate a topic
+ * model, then read every topic's top words and every document's assignments back out. It runs
+ * over every combination of corpus size, thread count and topic count given, and appends one CSV
+ * row per run to the results file with throughput, wall time per phase, peak heap and how well
+ * the generating topics were recovered. Each throughput is taken over its own phase: documents
+ * per second while ingesting, and tokens and iterations per second while estimating.
+ *
+ * <pre>
+ * java -cp bin:bench-bin:libs/* wordsmith.MacroBenchmark \
+ *     --sizes 1000,10000 --threads 1,4 --topics 20,100 --iterations 100 \
+ *     --out macro-results.csv --baseline macro-baseline.csv --max-regression 10
+ * </pre>
+ *
+ * With a baseline file (an earlier results file), each run's three throughputs are compared
+ * against the baseline row with the same configuration, and the process exits with status 1 if
+ * any of them dropped by more than --max-regression percent. Baseline columns are found by name,
+ * so baselines recorded before columns were added still work; a throughput the baseline doesn't
+ * have is reported and skipped. A results file
+ * with a different header is moved aside (to macro-results.csv.1 and so on) rather than
+ * appended to.
+ */
+public class MacroBenchmark {
+  static final String HEADER = "documents,threads,topics,iterations,tokens," +
+                               "ingest_ms,prune_ms,estimate_ms,results_ms,total_ms," +
+                               "ingest_docs_per_sec,estimate_tokens_per_sec,iterations_per_sec," +
+                               "peak_heap_mb," +
+                               "topic_recovery";
+
+  int[] sizes = { 1000, 10000 };
+  int[] threads = { 1, 2 };
+  int[] topics = { 20 };
+  int iterations = 100;
+  int documentLength = 100;
+  int vocabularySize = 20000;
+  int trueTopics = 20;
+  File out = new File("macro-results.csv");
+  File baseline = null;
+  double maxRegressionPercent = 10;
+
+  public static void main(String[] args) throws Exception {
+    MacroBenchmark benchmark = new MacroBenchmark();
+    benchmark.parseArguments(args);
+    List<String[]> rows = benchmark.runAll();
+    if (benchmark.baseline != null && !benchmark.checkAgainstBaseline(rows)) {
+      System.exit(1);
+    }
+  }
+
+  void parseArguments(String[] args) {
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String name = args[i], value = args[i + 1];
+      if (name.equals("--sizes")) {
+        sizes = parseInts(value);
+      } else if (name.equals("--threads")) {
+        threads = parseInts(value);
+      } else if (name.equals("--topics")) {
+        topics = parseInts(value);
+      } else if (name.equals("--iterations")) {
+        iterations = Integer.parseInt(value);
+      } else if (name.equals("--document-length")) {
+        documentLength = Integer.parseInt(value);
+      } else if (name.equals("--vocabulary")) {
+        vocabularySize = Integer.parseInt(value);
+      } else if (name.equals("--true-topics")) {
+        trueTopics = Integer.parseInt(value);
+      } else if (name.equals("--out")) {
+        out = new File(value);
+      } else if (name.equals("--baseline")) {
+        baseline = new File(value);
+      } else if (name.equals("--max-regression")) {
+        maxRegressionPercent = Double.parseDouble(value);
+      } else {
+        throw new IllegalArgumentException("Unknown option " + name);
+      }
+    }
+  }
+
+  List<String[]> runAll() throws IOException {
+    if (out.exists() && out.length() > 0 && !HEADER.equals(readHeader(out))) {
+      File old = out;
+      for (int i = 1; old.exists(); i++) {
+        old = new File(out.getPath() + "." + i);
+      }
+      if (!out.renameTo(old)) {
+        throw new IOException("Couldn't move " + out + ", which has other columns, to " + old);
+      }
+      System.out.println(out + " has other columns; moved it to " + old);
+    }
+    boolean writeHeader = !out.exists() || out.length() == 0;
+    PrintWriter writer = new PrintWriter(new FileWriter(out, true));
+    if (writeHeader) {
+      writer.println(HEADER);
+    }
+    ArrayList<String[]> rows = new ArrayList<String[]>();
+    try {
+      for (int s = 0; s < sizes.length; s++) {
+        SyntheticCorpus generator = new SyntheticCorpus(vocabularySize, trueTopics, sizes[s])
+            .setDocumentLength(documentLength, 0);
+        ArrayList<String> corpus = new ArrayList<String>(sizes[s]);
+        generator.generate(sizes[s], SyntheticCorpus.into(corpus));
+        for (int t = 0; t < threads.length; t++) {
+          for (int k = 0; k < topics.length; k++) {
+            String[] row = runOnce(generator, corpus, threads[t], topics[k]);
+            rows.add(row);
+            writer.println(join(row));
+            writer.flush();
+            System.out.println(HEADER + "\n" + join(row));
+          }
+        }
+      }
+    } finally {
+      writer.close();
+    }
+    return rows;
+  }
+
+  String[] runOnce(SyntheticCorpus generator, ArrayList<String> corpus, int numThreads,
+                   int numTopics) {
+    System.gc();
+    resetPeakHeap();
+
+    long start = System.currentTimeMillis();
+    Wordsmith wordsmith = new Wordsmith();
+    wordsmith.createNewModel(numTopics);
+    wordsmith.setNumberOfProcessIterations(iterations);
+    wordsmith.setIntermediateResultsFrequency(iterations + 1);
+    wordsmith.useMulticore(numThreads);
+    wordsmith.removeCommonEnglishWordsFromDocuments();
+    wordsmith.pruneWordsOccurringLessThanThreshold(3);
+    for (int i = 0; i < corpus.size(); i++) {
+      wordsmith.addDocumentInString(corpus.get(i));
+    }
+    long ingested = System.currentTimeMillis();
+
+    wordsmith.extractTopicsFromDocuments();
+    long trained = System.currentTimeMillis();
+
+    long tokens = 0;
+    for (int topic = 0; topic < numTopics; topic++) {
+      wordsmith.getTopWeightedWordsForTopic(topic, 20);
+    }
+    DocumentTopicCursor cursor = wordsmith.getDocumentTopicCursor();
+    for (int doc = 0; doc < wordsmith.getNumProcessedDocuments(); doc++) {
+      cursor.moveToDocument(doc);
+      tokens += cursor.getNumModelWords();
+      while (cursor.next()) {
+        // just walk it
+      }
+    }
+    long finished = System.currentTimeMillis();
+
+    WordsmithMetrics metrics = wordsmith.getMetrics();
+    long pruneMillis = metrics.getPruneMillis() + metrics.getPhraseMillis();
+    long estimateMillis = trained - ingested - pruneMillis;
+    double ingestSeconds = Math.max(1, ingested - start) / 1000.0;
+    double estimateSeconds = Math.max(1, estimateMillis) / 1000.0;
+    return new String[] {
+      String.valueOf(corpus.size()), String.valueOf(numThreads), String.valueOf(numTopics),
+      String.valueOf(iterations), String.valueOf(tokens),
+      String.valueOf(ingested - start), String.valueOf(pruneMillis),
+      String.valueOf(estimateMillis),
+      String.valueOf(finished - trained), String.valueOf(finished - start),
+      format(corpus.size() / ingestSeconds), format(tokens / estimateSeconds),
+      format(1000 / metrics.getMeanIterationMillis()),
+      format(peakHeapBytes() / (1024.0 * 1024.0)),
+      String.format(Locale.US, "%.3f", generator.scoreRecovery(wordsmith, 20)),
+    };
+  }
+
+  /**
+   * Compares the throughputs with the matching baseline rows. Returns false if any dropped by
+   * more than the allowed percentage.
+   */
+  boolean checkAgainstBaseline(List<String[]> rows) throws IOException {
+    HashMap<String, String[]> baselineRows = new HashMap<String, String[]>();
+    String[] baselineHeader;
+    BufferedReader reader = new BufferedReader(new FileReader(baseline));
+    try {
+      String line = reader.readLine();
+      if (line == null) {
+        throw new IOException(baseline + " is empty");
+      }
+      baselineHeader = line.split(",");
+      while ((line = reader.readLine()) != null) {
+        String[] row = line.split(",");
+        // Later rows for the same configuration win, so a baseline can be refreshed by appending.
+        baselineRows.put(configuration(row, baselineHeader), row);
+      }
+    } finally {
+      reader.close();
+    }
+
+    boolean passed = true;
+    String[] header = HEADER.split(",");
+    String[] compared = { "ingest_docs_per_sec", "estimate_tokens_per_sec",
+                          "iterations_per_sec" };
+    for (int c = 0; c < compared.length; c++) {
+      if (!hasColumn(baselineHeader, compared[c])) {
+        System.out.println("The baseline has no " + compared[c] + " column, skipping it");
+      }
+    }
+    for (int r = 0; r < rows.size(); r++) {
+      String[] row = rows.get(r);
+      String[] base = baselineRows.get(configuration(row, header));
+      if (base == null) {
+        System.out.println("No baseline for " + configuration(row, header) + ", skipping");
+        continue;
+      }
+      for (int c = 0; c < compared.length; c++) {
+        if (!hasColumn(baselineHeader, compared[c])) {
+          continue;
+        }
+        double now = Double.parseDouble(row[column(header, compared[c])]);
+        double before = Double.parseDouble(base[column(baselineHeader, compared[c])]);
+        double dropPercent = 100 * (before - now) / before;
+        if (dropPercent > maxRegressionPercent) {
+          System.out.println("REGRESSION: " + compared[c] + " for " +
+                             configuration(row, header) + " dropped " + format(dropPercent) +
+                             "% (" + format(before) + " -> " + format(now) + ")");
+          passed = false;
+        }
+      }
+    }
+    return passed;
+  }
+
+  // documents,threads,topics,iterations
+  private static String configuration(String[] row, String[] header) throws IOException {
+    return row[column(header, "documents")] + "," + row[column(header, "threads")] + "," +
+           row[column(header, "topics")] + "," + row[column(header, "iterations")];
+  }
+
+  private static int column(String[] header, String name) throws IOException {
+    for (int i = 0; i < header.length; i++) {
+      if (header[i].trim().equals(name)) {
+        return i;
+      }
+    }
+    throw new IOException("No " + name + " column in the baseline");
+  }
+
+  private static boolean hasColumn(String[] header, String name) {
+    for (int i = 0; i < header.length; i++) {
+      if (header[i].trim().equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String readHeader(File results) throws IOException {
+    BufferedReader reader = new BufferedReader(new FileReader(results));
+    try {
+      return reader.readLine();
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static void resetPeakHeap() {
+    List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+    for (int i = 0; i < pools.size(); i++) {
+      pools.get(i).resetPeakUsage();
+    }
+  }
+
+  // Sum of the heap pools' peaks; an upper bound, since pools peak at different times.
+  private static long peakHeapBytes() {
+    long peak = 0;
+    List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+    for (int i = 0; i < pools.size(); i++) {
+      if (pools.get(i).getType() == MemoryType.HEAP) {
+        peak += pools.get(i).getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+
+  private static int[] parseInts(String list) {
+    String[] parts = list.split(",");
+    int[] values = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      values[i] = Integer.parseInt(parts[i].trim());
+    }
+    return values;
+  }
+
+  private static String format(double value) {
+    return String.format(Locale.US, "%.1f", value);
+  }
+
+  private static String join(String[] row) {
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < row.length; i++) {
+      if (i > 0) {
+        line.append(',');
+      }
+      line.append(row[i]);
+    }
+    return line.toString();
+  }
+}
@@ -0,0 +1,119 @@
+package wordsmith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import cc.mallet.pipe.CharSequence2TokenSequence;
+import cc.mallet.pipe.Input2CharSequence;
+import cc.mallet.pipe.Pipe;
+import cc.mallet.pipe.SaveDataInSource;
+import cc.mallet.pipe.SerialPipes;
+import cc.mallet.pipe.TokenSequenceLowercase;
+import cc.mallet.types.Instance;
+import cc.mallet.types.TokenSequence;
+
+/**
+ * Per-document cost of the preprocessing pipes, on the bundled tweets and on synthetic
+ * documents. Each operation pipes one document, cycling through the corpus.
+ */
+public class PipeBenchmarks {
+
+  public static ArrayList<Benchmark> all() throws Exception {
+    ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    addAll(benchmarks, "tweets", BenchmarkCorpora.tweets());
+    addAll(benchmarks, "synthetic-200w", BenchmarkCorpora.synthetic(2000, 200, 20000, 1));
+    return benchmarks;
+  }
+
+  private static void addAll(ArrayList<Benchmark> benchmarks, String corpusName,
+                             final ArrayList<String> corpus) {
+    benchmarks.add(new TokenSequenceBenchmark("TokenSequenceMarkStopwords.pipe", corpusName,
+                                              corpus) {
+      Pipe pipe = new TokenSequenceMarkStopwords(new HashSet<String>())
+                      .addStopWords(Stopwords.augmentedEnglishStopWords)
+                      .addStopWords(Stopwords.malletEnglishStopwords);
+
+      public Object run() {
+        return pipe.pipe(nextInstance());
+      }
+    });
+
+    benchmarks.add(new TokenSequenceBenchmark("TokenSequence2StopwordlessFeatureSequence.pipe",
+                                              corpusName, corpus) {
+      Pipe pipe = new TokenSequence2StopwordlessFeatureSequence();
+
+      public void setUp() throws Exception {
+        super.setUp();
+        Pipe marker = new TokenSequenceMarkStopwords(Stopwords.malletEnglishStopwords);
+        for (int i = 0; i < tokens.size(); i++) {
+          marker.pipe(new Instance(tokens.get(i), null, null, null));
+        }
+      }
+
+      public Object run() {
+        return pipe.pipe(nextInstance());
+      }
+    });
+
+    benchmarks.add(new TokenSequenceBenchmark("TokenSequenceCacher.pipe", corpusName, corpus) {
+      ArrayList<TokenSequence> cache = new ArrayList<TokenSequence>();
+      Pipe pipe = new TokenSequenceCacher(cache);
+
+      public Object run() {
+        if (cache.size() == 100000) {
+          cache.clear();
+        }
+        return pipe.pipe(nextInstance());
+      }
+    });
+
+    benchmarks.add(new Benchmark("makeNewInstancePipe [" + corpusName + "]") {
+      SerialPipes pipe;
+      int next = 0;
+
+      public void setUp() {
+        Wordsmith wordsmith = new Wordsmith();
+        wordsmith.removeCommonEnglishWordsFromDocuments();
+        wordsmith.removeHtmlFromDocuments();
+        pipe = wordsmith.makeNewInstancePipe();
+      }
+
+      public Object run() {
+        String document = corpus.get(next++ % corpus.size());
+        return pipe.instanceFrom(new Instance(document, null, "added_document", null));
+      }
+    });
+  }
+
+  /**
+   * Benchmarks a pipe that takes a TokenSequence. The corpus is tokenized and lowercased once
+   * in setUp so only the pipe under test is timed.
+   */
+  private static abstract class TokenSequenceBenchmark extends Benchmark {
+    final ArrayList<String> corpus;
+    final ArrayList<TokenSequence> tokens = new ArrayList<TokenSequence>();
+    int next = 0;
+
+    TokenSequenceBenchmark(String pipeName, String corpusName, ArrayList<String> corpus) {
+      super(pipeName + " [" + corpusName + "]");
+      this.corpus = corpus;
+    }
+
+    public void setUp() throws Exception {
+      SerialPipes tokenizer = new SerialPipes(new Pipe[] {
+          new SaveDataInSource(),
+          new Input2CharSequence(),
+          new CharSequence2TokenSequence(),
+          new TokenSequenceLowercase(),
+      });
+      for (int i = 0; i < corpus.size(); i++) {
+        Instance instance = tokenizer.instanceFrom(new Instance(corpus.get(i), null, null, null));
+        tokens.add((TokenSequence) instance.getData());
+      }
+    }
+
+    Instance nextInstance() {
+      return new Instance(tokens.get(next++ % tokens.size()), null, null, null);
+    }
+  }
+}
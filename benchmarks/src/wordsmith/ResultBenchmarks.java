@@ -0,0 +1,110 @@
+package wordsmith;
+
+import java.util.ArrayList;
+
+/**
+ * Cost of reading results out of a trained model. The model is trained once per corpus in
+ * setUp; each operation then queries one topic or document, cycling through them.
+ *
+ * The long lists ask for as many words as the smallest topic has, so that no request is cut
+ * short and Wordsmith never prints its warning about that inside the timed operation.
+ */
+public class ResultBenchmarks {
+  private static final int NUM_TOPICS = 20;
+  private static final int SMALLEST_TOPIC = -1;
+
+  public static ArrayList<Benchmark> all() throws Exception {
+    ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    addAll(benchmarks, "tweets", BenchmarkCorpora.tweets());
+    addAll(benchmarks, "synthetic-200w", BenchmarkCorpora.synthetic(2000, 200, 20000, 1));
+    return benchmarks;
+  }
+
+  private static void addAll(ArrayList<Benchmark> benchmarks, String corpusName,
+                             ArrayList<String> corpus) {
+    final ModelHolder model = new ModelHolder(corpus);
+
+    // SMALLEST_TOPIC stands for the smallest topic's word count, known once the model is trained.
+    final int[] wordCounts = { 10, SMALLEST_TOPIC };
+    for (int w = 0; w < wordCounts.length; w++) {
+      final int requested = wordCounts[w];
+      final String label = requested == SMALLEST_TOPIC ? "all" : String.valueOf(requested);
+      benchmarks.add(new Benchmark("getTopWordsForTopic(" + label + ") [" + corpusName + "]") {
+        int topic = 0;
+        int numWords;
+
+        public void setUp() {
+          model.train();
+          numWords = requested == SMALLEST_TOPIC ? model.smallestTopic : requested;
+        }
+
+        public Object run() {
+          return model.wordsmith.getTopWordsForTopic(topic++ % NUM_TOPICS, numWords);
+        }
+      });
+
+      benchmarks.add(new Benchmark("getTopWeightedWordsForTopic(" + label + ") [" +
+                                   corpusName + "]") {
+        int topic = 0;
+        int numWords;
+
+        public void setUp() {
+          model.train();
+          numWords = requested == SMALLEST_TOPIC ? model.smallestTopic : requested;
+        }
+
+        public Object run() {
+          return model.wordsmith.getTopWeightedWordsForTopic(topic++ % NUM_TOPICS, numWords);
+        }
+      });
+    }
+
+    benchmarks.add(new Benchmark("getTopicWordAssignmentsForDocument [" + corpusName + "]") {
+      int document = 0;
+
+      public void setUp() {
+        model.train();
+      }
+
+      public Object run() {
+        Wordsmith wordsmith = model.wordsmith;
+        return wordsmith.getTopicWordAssignmentsForDocument(
+            document++ % wordsmith.getNumProcessedDocuments());
+      }
+    });
+  }
+
+  /**
+   * Trains a short model on first use and shares it between the benchmarks of one corpus.
+   */
+  private static class ModelHolder {
+    final ArrayList<String> corpus;
+    Wordsmith wordsmith;
+    int smallestTopic;
+
+    ModelHolder(ArrayList<String> corpus) {
+      this.corpus = corpus;
+    }
+
+    void train() {
+      if (wordsmith != null) {
+        return;
+      }
+      wordsmith = new Wordsmith();
+      wordsmith.createNewModel(NUM_TOPICS);
+      wordsmith.setNumberOfProcessIterations(100);
+      wordsmith.setIntermediateResultsFrequency(1000);
+      wordsmith.cacheTokenizationOfDocuments(true);
+      wordsmith.removeCommonEnglishWordsFromDocuments();
+      for (int i = 0; i < corpus.size(); i++) {
+        wordsmith.addDocumentInString(corpus.get(i));
+      }
+      wordsmith.extractTopicsFromDocuments();
+      smallestTopic = Integer.MAX_VALUE;
+      for (int topic = 0; topic < NUM_TOPICS; topic++) {
+        smallestTopic = Math.min(smallestTopic,
+                                 wordsmith.getResults().getNumWordsInTopic(topic));
+      }
+    }
+  }
+}
@@ -0,0 +1,406 @@
+package wordsmith;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Generates documents from a known LDA model, so topic recovery can be measured and corpora of
+ * any size can be produced without shipping real data.
+ *
+ * Each topic's word distribution is drawn from a Dirichlet whose base measure follows Zipf's law
+ * over the vocabulary (exponent zipfSkew, 0 for uniform), scaled by topicWordConcentration.
+ * Each document draws its topic proportions from a symmetric Dirichlet(documentTopicAlpha), a
+ * length from a Poisson (or, if documentLengthSigma is positive, a log-normal) distribution with
+ * the given mean, and then its words. Words are sampled through per-topic alias tables, so
+ * generating a token costs O(1) whatever the vocabulary size, and documents are streamed to a
+ * Sink one at a time so memory doesn't grow with the number of documents.
+ *
+ * <pre>
+ * SyntheticCorpus corpus = new SyntheticCorpus(20000, 50, 42);
+ * corpus.generate(100000, SyntheticCorpus.into(wordsmith));
+ * wordsmith.extractTopicsFromDocuments();
+ * double recovered = corpus.scoreRecovery(wordsmith, 20);
+ * </pre>
+ *
+ * Or from the command line, one document per line:
+ *
+ * <pre>
+ * java -cp bin:bench-bin:libs/* wordsmith.SyntheticCorpus --documents 10000000 \
+ *     --vocabulary 50000 --topics 100 --out corpus.txt
+ * </pre>
+ */
+public class SyntheticCorpus {
+
+  /**
+   * Receives generated documents in order.
+   */
+  public interface Sink {
+    void document(int index, String text) throws IOException;
+  }
+
+  private final int vocabularySize;
+  private final int numTopics;
+  private final Random random;
+
+  private double documentTopicAlpha = 0.1;
+  private double topicWordConcentration = 0.05;
+  private double zipfSkew = 1.0;
+  private int meanDocumentLength = 100;
+  private double documentLengthSigma = 0;
+
+  // True topic-word distributions, as alias tables.
+  private float[][] wordProbabilities;
+  private float[][] aliasProbabilities;
+  private int[][] aliases;
+  private String[] words;
+
+  public SyntheticCorpus(int vocabularySize, int numTopics, long seed) {
+    this.vocabularySize = vocabularySize;
+    this.numTopics = numTopics;
+    this.random = new Random(seed);
+  }
+
+  public SyntheticCorpus setDocumentTopicAlpha(double alpha) {
+    this.documentTopicAlpha = alpha;
+    return this;
+  }
+
+  public SyntheticCorpus setTopicWordConcentration(double concentration) {
+    this.topicWordConcentration = concentration;
+    return this;
+  }
+
+  public SyntheticCorpus setZipfSkew(double skew) {
+    this.zipfSkew = skew;
+    return this;
+  }
+
+  /**
+   * Sets the mean document length. With sigma 0 lengths are Poisson distributed, otherwise
+   * log-normal with that standard deviation of the log length.
+   */
+  public SyntheticCorpus setDocumentLength(int mean, double sigma) {
+    this.meanDocumentLength = mean;
+    this.documentLengthSigma = sigma;
+    return this;
+  }
+
+  /**
+   * Generates numDocuments documents into the sink. The true topics are drawn on the first
+   * call and kept for later calls and for scoring.
+   */
+  public void generate(int numDocuments, Sink sink) throws IOException {
+    if (wordProbabilities == null) {
+      drawTopics();
+    }
+    double[] theta = new double[numTopics];
+    StringBuilder text = new StringBuilder();
+    for (int d = 0; d < numDocuments; d++) {
+      sampleDirichlet(theta, null, documentTopicAlpha);
+      int length = sampleLength();
+      text.setLength(0);
+      for (int w = 0; w < length; w++) {
+        int topic = sampleDiscrete(theta);
+        int column = random.nextInt(vocabularySize);
+        int word = random.nextFloat() < aliasProbabilities[topic][column]
+                   ? column : aliases[topic][column];
+        text.append(words[word]).append(' ');
+      }
+      sink.document(d, text.toString());
+    }
+  }
+
+  /**
+   * Matches each learned topic greedily to the true topic its top words overlap most, and
+   * returns the mean fraction of the top numWords words shared by matched pairs. 1 means every
+   * true topic was recovered exactly (up to ordering within the top words).
+   */
+  public double scoreRecovery(Wordsmith wordsmith, int numWords) {
+    ArrayList<HashSet<String>> trueTopics = new ArrayList<HashSet<String>>();
+    for (int topic = 0; topic < numTopics; topic++) {
+      trueTopics.add(trueTopWords(topic, numWords));
+    }
+
+    double total = 0;
+    boolean[] matched = new boolean[numTopics];
+    int learnedTopics = Math.min(numTopics, wordsmith.getNumTopics());
+    for (int learned = 0; learned < learnedTopics; learned++) {
+      WeightedWord[] top = wordsmith.getTopWeightedWordsForTopic(learned, numWords);
+      int best = -1, bestOverlap = -1;
+      for (int topic = 0; topic < numTopics; topic++) {
+        if (matched[topic]) {
+          continue;
+        }
+        int overlap = 0;
+        for (int i = 0; i < top.length; i++) {
+          if (trueTopics.get(topic).contains(top[i].getWord())) {
+            overlap++;
+          }
+        }
+        if (overlap > bestOverlap) {
+          best = topic;
+          bestOverlap = overlap;
+        }
+      }
+      matched[best] = true;
+      total += (double) bestOverlap / numWords;
+    }
+    return total / numTopics;
+  }
+
+  private HashSet<String> trueTopWords(int topic, int numWords) {
+    // A full sort would do, but this runs once per topic and keeps memory flat.
+    HashSet<String> top = new HashSet<String>();
+    boolean[] taken = new boolean[vocabularySize];
+    for (int n = 0; n < Math.min(numWords, vocabularySize); n++) {
+      int best = -1;
+      for (int word = 0; word < vocabularySize; word++) {
+        if (!taken[word]
+            && (best < 0 || wordProbabilities[topic][word] > wordProbabilities[topic][best])) {
+          best = word;
+        }
+      }
+      taken[best] = true;
+      top.add(words[best]);
+    }
+    return top;
+  }
+
+  private void drawTopics() {
+    words = new String[vocabularySize];
+    double[] base = new double[vocabularySize];
+    double baseSum = 0;
+    StringBuilder word = new StringBuilder();
+    for (int w = 0; w < vocabularySize; w++) {
+      word.setLength(0);
+      BenchmarkCorpora.appendWord(word, w);
+      words[w] = word.toString();
+      base[w] = Math.pow(w + 1, -zipfSkew);
+      baseSum += base[w];
+    }
+    for (int w = 0; w < vocabularySize; w++) {
+      base[w] *= topicWordConcentration * vocabularySize / baseSum;
+    }
+
+    wordProbabilities = new float[numTopics][];
+    aliasProbabilities = new float[numTopics][];
+    aliases = new int[numTopics][];
+    double[] phi = new double[vocabularySize];
+    for (int topic = 0; topic < numTopics; topic++) {
+      sampleDirichlet(phi, base, 0);
+      wordProbabilities[topic] = new float[vocabularySize];
+      for (int w = 0; w < vocabularySize; w++) {
+        wordProbabilities[topic][w] = (float) phi[w];
+      }
+      buildAliasTable(topic, phi);
+    }
+  }
+
+  // Vose's alias method.
+  private void buildAliasTable(int topic, double[] probabilities) {
+    int n = probabilities.length;
+    float[] probability = new float[n];
+    int[] alias = new int[n];
+    double[] scaled = new double[n];
+    int[] small = new int[n], large = new int[n];
+    int numSmall = 0, numLarge = 0;
+    for (int i = 0; i < n; i++) {
+      scaled[i] = probabilities[i] * n;
+      if (scaled[i] < 1) {
+        small[numSmall++] = i;
+      } else {
+        large[numLarge++] = i;
+      }
+    }
+    while (numSmall > 0 && numLarge > 0) {
+      int less = small[--numSmall], more = large[--numLarge];
+      probability[less] = (float) scaled[less];
+      alias[less] = more;
+      scaled[more] = scaled[more] + scaled[less] - 1;
+      if (scaled[more] < 1) {
+        small[numSmall++] = more;
+      } else {
+        large[numLarge++] = more;
+      }
+    }
+    while (numLarge > 0) {
+      probability[large[--numLarge]] = 1;
+    }
+    while (numSmall > 0) {
+      probability[small[--numSmall]] = 1;
+    }
+    aliasProbabilities[topic] = probability;
+    aliases[topic] = alias;
+  }
+
+  // Fills out with a Dirichlet draw with parameters alphas, or symmetric alpha if alphas is null.
+  private void sampleDirichlet(double[] out, double[] alphas, double alpha) {
+    double sum = 0;
+    for (int i = 0; i < out.length; i++) {
+      out[i] = sampleGamma(alphas == null ? alpha : alphas[i]);
+      sum += out[i];
+    }
+    if (sum == 0) {
+      // Every draw underflowed, which happens with tiny alphas; put all the mass in one place.
+      out[random.nextInt(out.length)] = 1;
+      return;
+    }
+    for (int i = 0; i < out.length; i++) {
+      out[i] /= sum;
+    }
+  }
+
+  // Marsaglia and Tsang's method, boosted for shape < 1.
+  private double sampleGamma(double shape) {
+    if (shape < 1) {
+      return sampleGamma(shape + 1) * Math.pow(random.nextDouble(), 1 / shape);
+    }
+    double d = shape - 1.0 / 3, c = 1 / Math.sqrt(9 * d);
+    while (true) {
+      double x, v;
+      do {
+        x = random.nextGaussian();
+        v = 1 + c * x;
+      } while (v <= 0);
+      v = v * v * v;
+      double u = random.nextDouble();
+      if (u < 1 - 0.0331 * x * x * x * x || Math.log(u) < 0.5 * x * x + d * (1 - v + Math.log(v))) {
+        return d * v;
+      }
+    }
+  }
+
+  private int sampleDiscrete(double[] probabilities) {
+    double u = random.nextDouble();
+    for (int i = 0; i < probabilities.length - 1; i++) {
+      u -= probabilities[i];
+      if (u < 0) {
+        return i;
+      }
+    }
+    return probabilities.length - 1;
+  }
+
+  private int sampleLength() {
+    if (documentLengthSigma > 0) {
+      double mu = Math.log(meanDocumentLength) - documentLengthSigma * documentLengthSigma / 2;
+      double length = Math.exp(mu + documentLengthSigma * random.nextGaussian());
+      return Math.max(1, (int) Math.round(length));
+    }
+    if (meanDocumentLength > 100) {
+      // Normal approximation to the Poisson.
+      return Math.max(1, (int) Math.round(meanDocumentLength +
+                                          Math.sqrt(meanDocumentLength) * random.nextGaussian()));
+    }
+    double limit = Math.exp(-meanDocumentLength), product = random.nextDouble();
+    int length = 0;
+    while (product > limit) {
+      product *= random.nextDouble();
+      length++;
+    }
+    return Math.max(1, length);
+  }
+
+  // SINKS -----------------------------------------------------------------------------------------
+
+  public static Sink into(final Wordsmith wordsmith) {
+    return new Sink() {
+      public void document(int index, String text) {
+        wordsmith.addDocumentInString(text);
+      }
+    };
+  }
+
+  public static Sink into(final ArrayList<String> documents) {
+    return new Sink() {
+      public void document(int index, String text) {
+        documents.add(text);
+      }
+    };
+  }
+
+  /**
+   * Writes one document per line. The caller closes the writer.
+   */
+  public static Sink toLines(final Writer writer) {
+    return new Sink() {
+      public void document(int index, String text) throws IOException {
+        writer.write(text);
+        writer.write('\n');
+      }
+    };
+  }
+
+  /**
+   * Writes one file per document for addDocumentsInDirectory, 1000 to a subdirectory.
+   */
+  public static Sink toDirectory(final File directory) {
+    return new Sink() {
+      public void document(int index, String text) throws IOException {
+        File subdirectory = new File(directory, String.format("%05d", index / 1000));
+        subdirectory.mkdirs();
+        Writer writer = new OutputStreamWriter(
+            new FileOutputStream(new File(subdirectory, index + ".txt")), "UTF-8");
+        try {
+          writer.write(text);
+        } finally {
+          writer.close();
+        }
+      }
+    };
+  }
+
+  public static void main(String[] args) throws IOException {
+    int numDocuments = 10000, vocabulary = 20000, topics = 50, length = 100;
+    double sigma = 0, skew = 1.0, alpha = 0.1;
+    long seed = 1;
+    String out = null, directory = null;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String name = args[i], value = args[i + 1];
+      if (name.equals("--documents")) {
+        numDocuments = Integer.parseInt(value);
+      } else if (name.equals("--vocabulary")) {
+        vocabulary = Integer.parseInt(value);
+      } else if (name.equals("--topics")) {
+        topics = Integer.parseInt(value);
+      } else if (name.equals("--length")) {
+        length = Integer.parseInt(value);
+      } else if (name.equals("--length-sigma")) {
+        sigma = Double.parseDouble(value);
+      } else if (name.equals("--zipf")) {
+        skew = Double.parseDouble(value);
+      } else if (name.equals("--alpha")) {
+        alpha = Double.parseDouble(value);
+      } else if (name.equals("--seed")) {
+        seed = Long.parseLong(value);
+      } else if (name.equals("--out")) {
+        out = value;
+      } else if (name.equals("--directory")) {
+        directory = value;
+      } else {
+        throw new IllegalArgumentException("Unknown option " + name);
+      }
+    }
+
+    SyntheticCorpus corpus = new SyntheticCorpus(vocabulary, topics, seed)
+        .setDocumentTopicAlpha(alpha).setZipfSkew(skew).setDocumentLength(length, sigma);
+    if (directory != null) {
+      corpus.generate(numDocuments, toDirectory(new File(directory)));
+    } else {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(
+          out == null ? System.out : new FileOutputStream(out), "UTF-8"));
+      try {
+        corpus.generate(numDocuments, toLines(writer));
+      } finally {
+        writer.close();
+      }
+    }
+  }
+}
@@ -1,5 +1,4 @@
 import wordsmith.*;
-import pwitter.*;
 
 Wordsmith wordsmith = new Wordsmith();
 
@@ -32,17 +31,10 @@ wordsmith.removeHtmlFromDocuments();
 wordsmith.removeCommonEnglishWordsFromDocuments();
 wordsmith.pruneWordsOccurringLessThanThreshold(3);
 
-// Load the Tweets
-Pwitter twitter = new Pwitter(this);
+// Load the Tweets, one at a time straight from the file
 String user = "johnmaeda";
-ArrayList tweets = twitter.loadTweets("data/" + user + ".xml");
 wordsmith.removeWordFromDocuments(user);
-
-for (int i = 0; i < tweets.size(); i++) {
-  Pweet tweet = (Pweet) tweets.get(i);
-  String tweetText = tweet.getText();
-  wordsmith.addDocumentInString(tweetText);
-}
+wordsmith.addTweetsInXmlFile(dataPath(user + ".xml"));
 
 // Fire it up!
 wordsmith.extractTopicsFromDocuments();
@@ -72,8 +64,7 @@ for (int topic = 0; topic < numTopics; topic++) {
 }
 
 // Grab a random tweet and go through its assignments.
-Pweet tweet = (Pweet) tweets.get(5);
-println("\n\n\nTopic assignments per word in tweet: " + tweet.getText());
+println("\n\n\nTopic assignments per word in tweet 5:");
 TopicWordAssignment[] assignments = wordsmith.getTopicWordAssignmentsForDocument(5);
 for (int i = 0; i < assignments.length; i++) {
   TopicWordAssignment assignment = assignments[i];
@@ -0,0 +1,289 @@
+package wordsmith;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import cc.mallet.types.Instance;
+
+/**
+ * Walks a directory, or a single file, and yields a document for every file in it, looking
+ * inside compressed files and archives as it goes: a .gz file is one document, and every file in
+ * a .tar, .tar.gz, .tgz or .zip archive is a document of its own. Plain files are passed on as
+ * Files, like FileIterator does; documents from inside archives are decoded as UTF-8 and named
+ * "archive!/entry".
+ *
+ * Reading and decompressing happen on a background thread that stays a few documents ahead of
+ * the caller, so decompression overlaps with tokenization. Everything is streamed; nothing is
+ * extracted to disk. Call close() if you stop before the end.
+ *
+ * Java has no zstd decompressor, so .zst files are skipped with a warning; decompress them with
+ * "zstd -d" first.
+ */
+public class ArchiveIterator implements Iterator<Instance> {
+  private static final int QUEUE_SIZE = 32;
+  private static final Object END = new Object();
+
+  private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_SIZE);
+  private final Thread reader;
+  private Object next = null;
+
+  public ArchiveIterator(final File root) {
+    reader = new Thread("wordsmith-decompress") {
+      public void run() {
+        try {
+          walk(root);
+          queue.put(END);
+        } catch (InterruptedException e) {
+          // Closed early.
+        } catch (Exception e) {
+          try {
+            queue.put(e);
+          } catch (InterruptedException interrupted) {
+            // Closed early.
+          }
+        }
+      }
+    };
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  public boolean hasNext() {
+    if (next == null) {
+      try {
+        next = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while reading documents", e);
+      }
+    }
+    if (next instanceof Exception) {
+      Exception e = (Exception) next;
+      throw new IllegalStateException("Couldn't read documents: " + e.getMessage(), e);
+    }
+    return next != END;
+  }
+
+  public Instance next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Instance instance = (Instance) next;
+    next = null;
+    return instance;
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Stops the background reader.
+   */
+  public void close() {
+    reader.interrupt();
+  }
+
+  // READING ---------------------------------------------------------------------------------------
+
+  private void walk(File file) throws IOException, InterruptedException {
+    if (file.isDirectory()) {
+      File[] children = file.listFiles();
+      if (children == null) {
+        throw new IOException("Can't list " + file);
+      }
+      for (int i = 0; i < children.length; i++) {
+        walk(children[i]);
+      }
+      return;
+    }
+
+    String name = file.getName().toLowerCase();
+    if (name.endsWith(".zst")) {
+      System.err.println("Skipping " + file +
+                         ": zstd files aren't supported, decompress them first.");
+    } else if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+      readTar(file, new GZIPInputStream(open(file), 1 << 16));
+    } else if (name.endsWith(".tar")) {
+      readTar(file, open(file));
+    } else if (name.endsWith(".zip")) {
+      readZip(file, new ZipInputStream(open(file)));
+    } else if (name.endsWith(".gz")) {
+      InputStream in = new GZIPInputStream(open(file), 1 << 16);
+      try {
+        String entry = file.getName().substring(0, file.getName().length() - 3);
+        put(file, entry, readFully(in, -1));
+      } finally {
+        in.close();
+      }
+    } else {
+      queue.put(new Instance(file, null, file.toURI(), null));
+    }
+  }
+
+  private static InputStream open(File file) throws IOException {
+    return new BufferedInputStream(new FileInputStream(file), 1 << 16);
+  }
+
+  private void put(File archive, String entry, byte[] contents) throws InterruptedException,
+                                                                    IOException {
+    queue.put(new Instance(new String(contents, "UTF-8"), null, archive + "!/" + entry, null));
+  }
+
+  private void readZip(File file, ZipInputStream in) throws IOException, InterruptedException {
+    try {
+      for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+        if (!entry.isDirectory()) {
+          put(file, entry.getName(), readFully(in, entry.getSize()));
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Reads a POSIX (ustar) or GNU tar stream: 512-byte headers, each followed by the entry's
+   * data padded to a multiple of 512 bytes.
+   */
+  private void readTar(File file, InputStream in) throws IOException, InterruptedException {
+    try {
+      byte[] header = new byte[512];
+      String longName = null;
+      while (true) {
+        if (!readBlock(in, header) || isZero(header)) {
+          return;
+        }
+        long size = parseSize(header);
+        char type = (char) header[156];
+        if (type == 'L') {
+          // GNU long name for the next entry.
+          longName = new String(readFully(in, size), "UTF-8").trim();
+        } else if (type == '0' || type == '\0' || type == '7') {
+          String name = longName != null ? longName : entryName(header);
+          put(file, name, readFully(in, size));
+          longName = null;
+        } else {
+          // Directories, links, pax headers and the like.
+          skip(in, size);
+          longName = null;
+        }
+        skip(in, (512 - size % 512) % 512);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static String entryName(byte[] header) throws IOException {
+    String name = cString(header, 0, 100);
+    if (new String(header, 257, 5, "US-ASCII").equals("ustar")) {
+      String prefix = cString(header, 345, 155);
+      if (prefix.length() > 0) {
+        name = prefix + "/" + name;
+      }
+    }
+    return name;
+  }
+
+  private static String cString(byte[] bytes, int offset, int length) throws IOException {
+    int end = offset;
+    while (end < offset + length && bytes[end] != 0) {
+      end++;
+    }
+    return new String(bytes, offset, end - offset, "UTF-8");
+  }
+
+  private static long parseSize(byte[] header) throws IOException {
+    if ((header[124] & 0x80) != 0) {
+      // GNU base-256 for sizes over 8GB.
+      long size = 0;
+      for (int i = 125; i < 136; i++) {
+        size = (size << 8) | (header[i] & 0xff);
+      }
+      return size;
+    }
+    String octal = cString(header, 124, 12).trim();
+    try {
+      return octal.length() == 0 ? 0 : Long.parseLong(octal, 8);
+    } catch (NumberFormatException e) {
+      throw new IOException("Not a tar file (bad entry size \"" + octal + "\")");
+    }
+  }
+
+  private static boolean isZero(byte[] block) {
+    for (int i = 0; i < block.length; i++) {
+      if (block[i] != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+    int read = 0;
+    while (read < block.length) {
+      int n = in.read(block, read, block.length - read);
+      if (n < 0) {
+        if (read == 0) {
+          return false;
+        }
+        throw new EOFException("Truncated tar file");
+      }
+      read += n;
+    }
+    return true;
+  }
+
+  /**
+   * Reads exactly size bytes, or to the end of the stream if size is negative.
+   */
+  private static byte[] readFully(InputStream in, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("A " + size + " byte document is too big to read");
+    }
+    if (size >= 0) {
+      byte[] data = new byte[(int) size];
+      int read = 0;
+      while (read < data.length) {
+        int n = in.read(data, read, data.length - read);
+        if (n < 0) {
+          throw new EOFException("Truncated archive");
+        }
+        read += n;
+      }
+      return data;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+      out.write(buffer, 0, n);
+    }
+    return out.toByteArray();
+  }
+
+  private static void skip(InputStream in, long bytes) throws IOException {
+    while (bytes > 0) {
+      long skipped = in.skip(bytes);
+      if (skipped <= 0) {
+        if (in.read() < 0) {
+          throw new EOFException("Truncated tar file");
+        }
+        skipped = 1;
+      }
+      bytes -= skipped;
+    }
+  }
+}
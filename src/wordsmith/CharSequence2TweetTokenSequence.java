@@ -0,0 +1,143 @@
+package wordsmith;
+
+import cc.mallet.pipe.Pipe;
+import cc.mallet.types.Instance;
+import cc.mallet.types.Token;
+import cc.mallet.types.TokenSequence;
+
+/**
+ * Splits tweets into words, in place of CharSequence2TokenSequence, whose letters-only lexer
+ * turns "don't" into "don" and "t", "http://bit.ly/x" into "http", "bit", "ly" and "x", and
+ * "@johnmaeda" into a stray "johnmaeda".
+ *
+ * <ul>
+ * <li>Words are runs of letters in any script, with apostrophes inside them (' or &#8217;)
+ * kept, so contractions stay whole: "don't", "it's".</li>
+ * <li>URLs (starting "http://", "https://" or "www.") and @mentions are dropped.</li>
+ * <li>Hashtags become the word they tag: "#design" is "design".</li>
+ * <li>Letters repeated three or more times are cut to two: "soooo" is "soo" and "yesss" is
+ * "yess", while "cool" and "good" are left alone.</li>
+ * <li>HTML entities like "&amp;amp;", which feeds often leave escaped, are dropped.</li>
+ * </ul>
+ *
+ * Numbers, emoticons and other punctuation separate words. Case is left for
+ * TokenSequenceLowercase. It's one pass over the characters, building only the strings of the
+ * words it keeps.
+ */
+public class CharSequence2TweetTokenSequence extends Pipe {
+  private static final long serialVersionUID = 1L;
+
+  private transient StringBuilder word;
+
+  public Instance pipe(Instance carrier) {
+    if (word == null) {
+      word = new StringBuilder();
+    }
+    carrier.setData(tokenize((CharSequence) carrier.getData()));
+    return carrier;
+  }
+
+  private TokenSequence tokenize(CharSequence text) {
+    TokenSequence tokens = new TokenSequence();
+    int length = text.length();
+    int i = 0;
+    while (i < length) {
+      char c = text.charAt(i);
+      if (Character.isLetter(c)) {
+        if (startsUrl(text, i)) {
+          i = skipNonSpace(text, i);
+        } else {
+          i = readWord(text, i, tokens);
+        }
+      } else if (c == '@' && i + 1 < length && isHandleChar(text.charAt(i + 1))) {
+        i++;
+        while (i < length && isHandleChar(text.charAt(i))) {
+          i++;
+        }
+      } else if (c == '&' && i + 1 < length && Character.isLetter(text.charAt(i + 1))) {
+        i = skipEntity(text, i);
+      } else {
+        // '#' needs nothing special: the word after it is read like any other.
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Reads the word starting at start, with inner apostrophes and elongations cut to two letters.
+   *
+   * @return the index just past it
+   */
+  private int readWord(CharSequence text, int start, TokenSequence tokens) {
+    int length = text.length();
+    word.setLength(0);
+    char last = 0;
+    int run = 0;
+    int i = start;
+    while (i < length) {
+      char c = text.charAt(i);
+      if (Character.isLetter(c)) {
+        run = c == last ? run + 1 : 1;
+        last = c;
+        if (run <= 2) {
+          word.append(c);
+        }
+      } else if (isApostrophe(c) && i + 1 < length && Character.isLetter(text.charAt(i + 1))) {
+        word.append('\'');
+        last = 0;
+      } else {
+        break;
+      }
+      i++;
+    }
+    tokens.add(new Token(word.toString()));
+    return i;
+  }
+
+  private static boolean startsUrl(CharSequence text, int start) {
+    return startsWithIgnoreCase(text, start, "http://")
+        || startsWithIgnoreCase(text, start, "https://")
+        || startsWithIgnoreCase(text, start, "www.");
+  }
+
+  private static int skipNonSpace(CharSequence text, int start) {
+    int i = start;
+    while (i < text.length() && !Character.isWhitespace(text.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * @return the index just past an entity like "&amp;amp;", or just past the '&' if it isn't one
+   */
+  private static int skipEntity(CharSequence text, int start) {
+    int i = start + 1;
+    while (i < text.length() && i - start <= 8 && Character.isLetter(text.charAt(i))) {
+      i++;
+    }
+    return i < text.length() && text.charAt(i) == ';' ? i + 1 : start + 1;
+  }
+
+  private static boolean isHandleChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+  }
+
+  private static boolean isApostrophe(char c) {
+    return c == '\'' || c == '\u2019';
+  }
+
+  // prefix must be lowercase.
+  private static boolean startsWithIgnoreCase(CharSequence text, int start, String prefix) {
+    if (start + prefix.length() > text.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (Character.toLowerCase(text.charAt(start + i)) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,276 @@
+package wordsmith;
+
+import java.util.HashMap;
+
+import cc.mallet.pipe.Pipe;
+import cc.mallet.types.Instance;
+
+/**
+ * Strips HTML from a CharSequence in a single pass, as a fast replacement for Mallet's
+ * CharSequenceRemoveHTML, which builds a Swing HTML parser for every document.
+ *
+ * Tags, comments, doctypes and processing instructions become spaces; the contents of script and
+ * style elements are dropped; character references (&amp;amp;, &amp;#233;, &amp;#xe9;, the
+ * Latin-1 letters such as &amp;Eacute; and the common punctuation) are decoded, and anything
+ * that doesn't parse is left as text, the way browsers treat it. It doesn't build a document
+ * tree or check that the HTML is well formed, so broken pages come out as well as they can rather
+ * than failing.
+ *
+ * Not thread-safe: it reuses one buffer across documents.
+ */
+public class CharSequenceStripHTML extends Pipe {
+  private static final long serialVersionUID = 1L;
+
+  // The longest named entity worth looking up, not counting & and ;.
+  private static final int MAX_ENTITY_LENGTH = 8;
+
+  private static final HashMap<String, Character> ENTITIES = new HashMap<String, Character>();
+  static {
+    String[] names = {
+      "amp", "lt", "gt", "quot", "apos", "nbsp", "copy", "reg", "trade", "hellip", "mdash", "ndash",
+      "lsquo", "rsquo", "ldquo", "rdquo", "laquo", "raquo", "bull", "middot", "deg", "euro",
+      "pound", "yen", "cent", "sect", "para", "times", "divide", "szlig", "yuml",
+    };
+    char[] chars = {
+      '&', '<', '>', '"', '\'', ' ', '\u00a9', '\u00ae', '\u2122', '\u2026', '\u2014', '\u2013',
+      '\u2018', '\u2019', '\u201c', '\u201d', '\u00ab', '\u00bb', '\u2022', '\u00b7', '\u00b0',
+      '\u20ac', '\u00a3', '\u00a5', '\u00a2', '\u00a7', '\u00b6', '\u00d7', '\u00f7', '\u00df',
+      '\u00ff',
+    };
+    for (int i = 0; i < names.length; i++) {
+      ENTITIES.put(names[i], chars[i]);
+    }
+
+    // The Latin-1 letters, U+00C0 to U+00DE; each lowercase letter is 0x20 further on and named
+    // in lowercase. U+00D7 is the multiplication sign.
+    String[] letters = {
+      "Agrave", "Aacute", "Acirc", "Atilde", "Auml", "Aring", "AElig", "Ccedil", "Egrave",
+      "Eacute", "Ecirc", "Euml", "Igrave", "Iacute", "Icirc", "Iuml", "ETH", "Ntilde", "Ograve",
+      "Oacute", "Ocirc", "Otilde", "Ouml", null, "Oslash", "Ugrave", "Uacute", "Ucirc", "Uuml",
+      "Yacute", "THORN",
+    };
+    for (int i = 0; i < letters.length; i++) {
+      if (letters[i] != null) {
+        ENTITIES.put(letters[i], (char) (0xc0 + i));
+        ENTITIES.put(letters[i].toLowerCase(), (char) (0xe0 + i));
+      }
+    }
+  }
+
+  private transient StringBuilder out;
+
+  public Instance pipe(Instance carrier) {
+    if (out == null) {
+      out = new StringBuilder();
+    }
+    out.setLength(0);
+    strip((CharSequence) carrier.getData(), out);
+    carrier.setData(out.toString());
+    return carrier;
+  }
+
+  /**
+   * Appends the text of the HTML to out.
+   */
+  public static void strip(CharSequence html, StringBuilder out) {
+    int length = html.length();
+    int i = 0;
+    while (i < length) {
+      char c = html.charAt(i);
+      if (c == '<' && i + 1 < length) {
+        int end = skipMarkup(html, i);
+        if (end > i) {
+          out.append(' ');
+          i = end;
+          continue;
+        }
+      } else if (c == '&') {
+        int end = decodeEntity(html, i, out);
+        if (end > i) {
+          i = end;
+          continue;
+        }
+      }
+      out.append(c);
+      i++;
+    }
+  }
+
+  /**
+   * @return the index just past the markup starting at the '<' at start, or start if it isn't
+   *         markup after all (like "a < b")
+   */
+  private static int skipMarkup(CharSequence html, int start) {
+    int length = html.length();
+    char next = html.charAt(start + 1);
+    if (next == '!') {
+      if (startsWith(html, start, "<!--")) {
+        int end = indexOf(html, "-->", start + 4);
+        return end < 0 ? length : end + 3;
+      }
+      return skipTag(html, start + 2);
+    }
+    if (next == '?') {
+      return skipTag(html, start + 2);
+    }
+
+    boolean closing = next == '/';
+    int nameStart = closing ? start + 2 : start + 1;
+    int nameEnd = nameStart;
+    while (nameEnd < length && isNameChar(html.charAt(nameEnd))) {
+      nameEnd++;
+    }
+    if (nameEnd == nameStart || !isLetter(html.charAt(nameStart))) {
+      // "</>" and "< 3" aren't tags.
+      return closing && nameEnd == nameStart ? skipTag(html, nameStart) : start;
+    }
+    int end = skipTag(html, nameEnd);
+    if (!closing && html.charAt(end - 1) != '/') {
+      String raw = rawTextElement(html, nameStart, nameEnd);
+      if (raw != null) {
+        int close = indexOfIgnoreCase(html, raw, end);
+        return close < 0 ? length : skipTag(html, close + raw.length());
+      }
+    }
+    return end;
+  }
+
+  /**
+   * @return "&lt;/script" or "&lt;/style" if the tag name is one of those, whose contents are
+   *         code rather than text, or null
+   */
+  private static String rawTextElement(CharSequence html, int nameStart, int nameEnd) {
+    int nameLength = nameEnd - nameStart;
+    if (nameLength == 6 && regionMatchesIgnoreCase(html, nameStart, "script")) {
+      return "</script";
+    }
+    if (nameLength == 5 && regionMatchesIgnoreCase(html, nameStart, "style")) {
+      return "</style";
+    }
+    return null;
+  }
+
+  /**
+   * @return the index just past the '>' ending the tag, skipping quoted attribute values
+   */
+  private static int skipTag(CharSequence html, int from) {
+    int length = html.length();
+    char quote = 0;
+    for (int i = from; i < length; i++) {
+      char c = html.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (c == '>') {
+        return i + 1;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Appends the character the reference starting at the '&' at start stands for.
+   *
+   * @return the index just past the reference, or start if it isn't one
+   */
+  private static int decodeEntity(CharSequence html, int start, StringBuilder out) {
+    int length = html.length();
+    int i = start + 1;
+    if (i < length && html.charAt(i) == '#') {
+      i++;
+      int radix = 10;
+      if (i < length && (html.charAt(i) == 'x' || html.charAt(i) == 'X')) {
+        radix = 16;
+        i++;
+      }
+      int digitsStart = i;
+      int codePoint = 0;
+      while (i < length && i - digitsStart < 7 && Character.digit(html.charAt(i), radix) >= 0) {
+        codePoint = codePoint * radix + Character.digit(html.charAt(i), radix);
+        i++;
+      }
+      if (i == digitsStart || codePoint > Character.MAX_CODE_POINT || codePoint == 0) {
+        return start;
+      }
+      out.appendCodePoint(codePoint == 0xa0 ? ' ' : codePoint);
+      return i < length && html.charAt(i) == ';' ? i + 1 : i;
+    }
+
+    int nameStart = i;
+    while (i < length && i - nameStart < MAX_ENTITY_LENGTH && isLetter(html.charAt(i))) {
+      i++;
+    }
+    if (i == nameStart || i == length || html.charAt(i) != ';') {
+      return start;
+    }
+    Character decoded = ENTITIES.get(html.subSequence(nameStart, i).toString());
+    if (decoded == null) {
+      // Unknown names are dropped rather than left to become words like "zwnj". One between
+      // words still separates them; one inside a word (like "caf&zwnj;e") doesn't split it.
+      boolean insideWord = start > 0 && Character.isLetterOrDigit(html.charAt(start - 1))
+                           && i + 1 < length && Character.isLetterOrDigit(html.charAt(i + 1));
+      if (!insideWord) {
+        out.append(' ');
+      }
+    } else {
+      out.append(decoded.charValue());
+    }
+    return i + 1;
+  }
+
+  // CHARACTERS ------------------------------------------------------------------------------------
+
+  private static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isNameChar(char c) {
+    return isLetter(c) || (c >= '0' && c <= '9') || c == '-' || c == ':' || c == '_';
+  }
+
+  private static boolean startsWith(CharSequence html, int start, String prefix) {
+    if (start + prefix.length() > html.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (html.charAt(start + i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(CharSequence html, String target, int from) {
+    for (int i = from; i + target.length() <= html.length(); i++) {
+      if (startsWith(html, i, target)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // target must be lowercase.
+  private static boolean regionMatchesIgnoreCase(CharSequence html, int start, String target) {
+    if (start + target.length() > html.length()) {
+      return false;
+    }
+    for (int i = 0; i < target.length(); i++) {
+      if (Character.toLowerCase(html.charAt(start + i)) != target.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOfIgnoreCase(CharSequence html, String target, int from) {
+    for (int i = from; i + target.length() <= html.length(); i++) {
+      if (html.charAt(i) == '<' && regionMatchesIgnoreCase(html, i, target)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
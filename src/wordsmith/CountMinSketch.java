@@ -0,0 +1,93 @@
+package wordsmith;
+
+/**
+ * Approximate counts of a stream of words in fixed memory: depth rows of width counters, each row
+ * with its own hash. A word's count is the smallest of its counters, which is never below the
+ * true count and usually close to it. With conservative update, adding a word only raises the
+ * counters that are at its current minimum, which keeps the overestimates for rare words small.
+ *
+ * Each row hashes the word's characters itself (Murmur3, seeded per row) rather than starting
+ * from String.hashCode, so two words that share a hashCode still only collide where the rows'
+ * hashes happen to agree.
+ *
+ * Counts only ever grow, so once a word's estimate reaches some threshold it stays there. Not
+ * thread-safe.
+ */
+public class CountMinSketch {
+  private final int depth;
+  private final int mask;
+  private final int[] counters;
+  // The current word's counter in each row.
+  private final int[] slots;
+
+  /**
+   * @param width counters per row, rounded up to a power of two; estimates are off by at most
+   *        about e * (words added) / width, and usually far less
+   * @param depth rows, each an independent chance to avoid a collision; 4 is plenty
+   */
+  public CountMinSketch(int width, int depth) {
+    if (width < 1 || width > (1 << 28) || depth < 1) {
+      throw new IllegalArgumentException("The width must be from 1 to 2^28 and the depth at " +
+                                         "least 1.");
+    }
+    int size = Integer.highestOneBit(width);
+    if (size < width) {
+      size <<= 1;
+    }
+    this.depth = depth;
+    this.mask = size - 1;
+    this.counters = new int[depth * size];
+    this.slots = new int[depth];
+  }
+
+  /**
+   * Counts one more occurrence of the word.
+   *
+   * @return its estimated count, including this one
+   */
+  public int add(String word) {
+    int least = Integer.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      slots[row] = slot(word, row);
+      least = Math.min(least, counters[slots[row]]);
+    }
+    if (least == Integer.MAX_VALUE) {
+      return least;
+    }
+    for (int row = 0; row < depth; row++) {
+      if (counters[slots[row]] == least) {
+        counters[slots[row]]++;
+      }
+    }
+    return least + 1;
+  }
+
+  /**
+   * @return the word's estimated count
+   */
+  public int estimate(String word) {
+    int least = Integer.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      least = Math.min(least, counters[slot(word, row)]);
+    }
+    return least;
+  }
+
+  private int slot(String word, int row) {
+    // Murmur3's 32-bit hash of the characters, with the row as the seed.
+    int h = (row + 1) * 0x9e3779b9;
+    for (int i = 0; i < word.length(); i++) {
+      int k = word.charAt(i) * 0xcc9e2d51;
+      k = Integer.rotateLeft(k, 15) * 0x1b873593;
+      h ^= k;
+      h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+    }
+    h ^= word.length();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return row * (mask + 1) + (h & mask);
+  }
+}
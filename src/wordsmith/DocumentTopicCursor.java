@@ -0,0 +1,195 @@
+package wordsmith;
+
+import java.util.ArrayList;
+
+import cc.mallet.topics.ParallelTopicModel;
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.LabelSequence;
+import cc.mallet.types.Token;
+import cc.mallet.types.TokenSequence;
+
+/**
+ * Walks the words of a document and their topic assignments without allocating anything per
+ * token. Get one from Wordsmith.getDocumentTopicCursor(), point it at a document and step through:
+ *
+ * <pre>
+ * DocumentTopicCursor cursor = wordsmith.getDocumentTopicCursor();
+ * cursor.moveToDocument(5);
+ * while (cursor.next()) {
+ *   if (!cursor.isStopword()) {
+ *     counts[cursor.getTopic()]++;
+ *   }
+ * }
+ * </pre>
+ *
+ * When the tokenization was cached (see Wordsmith.cacheTokenizationOfDocuments) the cursor visits
+ * every original token, with stopwords and other filtered tokens reported as
+ * TopicWordAssignment.STOPWORD, and each word of a phrase the model merged into one (see
+ * PhraseDetector) reports the phrase's ID and topic. Otherwise it visits only the words the model
+ * saw.
+ *
+ * A cursor can be reused for any number of documents, but must not be shared between threads.
+ */
+public class DocumentTopicCursor {
+  private final ParallelTopicModel lda;
+  private final ArrayList<TokenSequence> cachedTokenSequences;
+  private final Alphabet alphabet;
+
+  private FeatureSequence tokenSequence;
+  private LabelSequence topicSequence;
+  private TokenSequence originalTokens;
+  private int position;
+  private int modelPosition;
+  private String phraseRest;
+
+  private int wordId;
+  private int topic;
+  private String word;
+
+  DocumentTopicCursor(ParallelTopicModel lda, ArrayList<TokenSequence> cachedTokenSequences) {
+    this.lda = lda;
+    this.cachedTokenSequences = cachedTokenSequences;
+    this.alphabet = lda.getAlphabet();
+  }
+
+  /**
+   * Positions the cursor before the first word of the document.
+   */
+  public DocumentTopicCursor moveToDocument(int documentIndex) {
+    tokenSequence = (FeatureSequence) lda.getData().get(documentIndex).instance.getData();
+    topicSequence = lda.getData().get(documentIndex).topicSequence;
+    originalTokens = cachedTokenSequences == null ? null : cachedTokenSequences.get(documentIndex);
+    position = -1;
+    modelPosition = 0;
+    phraseRest = null;
+    return this;
+  }
+
+  /**
+   * @return the number of words next() will visit in the current document
+   */
+  public int getLength() {
+    return originalTokens == null ? topicSequence.getLength() : originalTokens.size();
+  }
+
+  /**
+   * Advances to the next word. Returns false once the document is exhausted.
+   */
+  public boolean next() {
+    if (++position >= getLength()) {
+      return false;
+    }
+
+    if (originalTokens == null) {
+      wordId = tokenSequence.getIndexAtPosition(position);
+      topic = topicSequence.getIndexAtPosition(position);
+      word = null;
+      return true;
+    }
+
+    // Line the original tokens up with the ones the model kept. Anything that doesn't match the
+    // next model token was filtered out along the way.
+    Token token = originalTokens.get(position);
+    String text = token.getText();
+    word = TokenSequenceStem.surfaceForm(token);
+    wordId = -1;
+    topic = TopicWordAssignment.STOPWORD;
+    if (isMarkedStopword(token)) {
+      return true;
+    }
+    if (phraseRest != null) {
+      // Inside a phrase the model merged into one word: each of its words gets its topic.
+      String rest = phraseRemainder(phraseRest, text);
+      if (rest != null) {
+        wordId = tokenSequence.getIndexAtPosition(modelPosition - 1);
+        topic = topicSequence.getIndexAtPosition(modelPosition - 1);
+        phraseRest = rest.length() == 0 ? null : rest;
+        return true;
+      }
+      phraseRest = null;
+    }
+    if (modelPosition < tokenSequence.getLength()) {
+      int type = tokenSequence.getIndexAtPosition(modelPosition);
+      String rest = phraseRemainder((String) alphabet.lookupObject(type), text);
+      if (rest != null) {
+        wordId = type;
+        topic = topicSequence.getIndexAtPosition(modelPosition);
+        modelPosition++;
+        phraseRest = rest.length() == 0 ? null : rest;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return what's left of the model word after the original word: "" if they're the same,
+   *         "york" for "new_york" and "new", or null if the model word doesn't start with it
+   */
+  private static String phraseRemainder(String modelWord, String word) {
+    if (!modelWord.startsWith(word)) {
+      return null;
+    }
+    if (modelWord.length() == word.length()) {
+      return "";
+    }
+    return modelWord.charAt(word.length()) == PhraseDetector.JOINER
+           ? modelWord.substring(word.length() + 1) : null;
+  }
+
+  /**
+   * @return the vocabulary ID of the current word, or -1 if it was filtered out
+   */
+  public int getWordId() {
+    return wordId;
+  }
+
+  /**
+   * @return the topic of the current word, or TopicWordAssignment.STOPWORD if it was filtered out
+   */
+  public int getTopic() {
+    return topic;
+  }
+
+  public boolean isStopword() {
+    return topic == TopicWordAssignment.STOPWORD;
+  }
+
+  public String getWord() {
+    if (word == null) {
+      word = (String) alphabet.lookupObject(wordId);
+    }
+    return word;
+  }
+
+  /**
+   * Copies the model's topic assignments for the current document into topics and their word IDs
+   * into wordIds (either may be null), skipping filtered words. Both arrays must hold at least
+   * getNumModelWords() entries.
+   *
+   * @return the number of entries written
+   */
+  public int copyAssignments(int[] wordIds, int[] topics) {
+    int length = topicSequence.getLength();
+    for (int i = 0; i < length; i++) {
+      if (wordIds != null) {
+        wordIds[i] = tokenSequence.getIndexAtPosition(i);
+      }
+      if (topics != null) {
+        topics[i] = topicSequence.getIndexAtPosition(i);
+      }
+    }
+    return length;
+  }
+
+  /**
+   * @return the number of words in the current document that the model saw
+   */
+  public int getNumModelWords() {
+    return topicSequence.getLength();
+  }
+
+  static boolean isMarkedStopword(Token token) {
+    return token.getProperties() != null && Boolean.TRUE.equals(token.getProperty("stopword"));
+  }
+}
@@ -0,0 +1,243 @@
+package wordsmith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cc.mallet.topics.TopicAssignment;
+import cc.mallet.types.LabelSequence;
+
+/**
+ * The document x topic proportion matrix of a topic model, stored sparsely in compressed sparse
+ * row (CSR) form: the proportions of document d are values[rowOffsets[d] .. rowOffsets[d+1]) for
+ * the topics in the same range of topicIndices. Topics a document has no words in are left out.
+ *
+ * The matrix is built in one pass over the model's topic assignments, split across threads by
+ * document range. It can be read a row at a time, expanded into a dense row-major float[], or
+ * written out as a dense file and memory-mapped for corpora too big to expand on the heap.
+ *
+ * Instances are immutable and safe to share between threads.
+ */
+public class DocumentTopicMatrix {
+  private final int numTopics;
+  private final int[] rowOffsets;
+  private final int[] topicIndices;
+  private final float[] values;
+
+  // Dense files are mapped in windows no larger than this.
+  private static final long MAX_MAPPED_BYTES = Integer.MAX_VALUE;
+
+  public DocumentTopicMatrix(final ArrayList<TopicAssignment> data, final int numTopics,
+                            int numThreads) {
+    this.numTopics = numTopics;
+    int numDocs = data.size();
+    int numChunks = Math.max(1, Math.min(numThreads, numDocs / 1000));
+
+    Block[] blocks = new Block[numChunks];
+    if (numChunks == 1) {
+      blocks[0] = new Block(data, numTopics, 0, numDocs);
+    } else {
+      ExecutorService executor = Executors.newFixedThreadPool(numChunks);
+      try {
+        ArrayList<Future<Block>> futures = new ArrayList<Future<Block>>();
+        for (int chunk = 0; chunk < numChunks; chunk++) {
+          final int from = (int) ((long) numDocs * chunk / numChunks);
+          final int to = (int) ((long) numDocs * (chunk + 1) / numChunks);
+          futures.add(executor.submit(new Callable<Block>() {
+            public Block call() {
+              return new Block(data, numTopics, from, to);
+            }
+          }));
+        }
+        for (int chunk = 0; chunk < numChunks; chunk++) {
+          blocks[chunk] = futures.get(chunk).get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while building document topic matrix", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Couldn't build document topic matrix", e.getCause());
+      } finally {
+        executor.shutdown();
+      }
+    }
+
+    // Stitch the blocks together.
+    int nonZero = 0;
+    for (int chunk = 0; chunk < numChunks; chunk++) {
+      nonZero += blocks[chunk].size;
+    }
+    rowOffsets = new int[numDocs + 1];
+    topicIndices = new int[nonZero];
+    values = new float[nonZero];
+    int doc = 0, position = 0;
+    for (int chunk = 0; chunk < numChunks; chunk++) {
+      Block block = blocks[chunk];
+      for (int row = 0; row < block.numRows; row++) {
+        rowOffsets[doc + row + 1] = position + block.rowEnds[row];
+      }
+      System.arraycopy(block.topics, 0, topicIndices, position, block.size);
+      System.arraycopy(block.values, 0, values, position, block.size);
+      doc += block.numRows;
+      position += block.size;
+    }
+  }
+
+  // The rows of one document range, built by a single thread.
+  private static class Block {
+    final int numRows;
+    final int[] rowEnds;
+    int[] topics;
+    float[] values;
+    int size = 0;
+
+    Block(ArrayList<TopicAssignment> data, int numTopics, int from, int to) {
+      numRows = to - from;
+      rowEnds = new int[numRows];
+      topics = new int[Math.max(16, numRows * 2)];
+      values = new float[topics.length];
+      int[] counts = new int[numTopics];
+      for (int doc = from; doc < to; doc++) {
+        LabelSequence topicSequence = data.get(doc).topicSequence;
+        int length = topicSequence.getLength();
+        for (int pi = 0; pi < length; pi++) {
+          counts[topicSequence.getIndexAtPosition(pi)]++;
+        }
+        for (int topic = 0; topic < numTopics; topic++) {
+          if (counts[topic] == 0) {
+            continue;
+          }
+          if (size == topics.length) {
+            int[] biggerTopics = new int[size * 2];
+            float[] biggerValues = new float[size * 2];
+            System.arraycopy(topics, 0, biggerTopics, 0, size);
+            System.arraycopy(values, 0, biggerValues, 0, size);
+            topics = biggerTopics;
+            values = biggerValues;
+          }
+          topics[size] = topic;
+          values[size] = (float) counts[topic] / length;
+          size++;
+          counts[topic] = 0;
+        }
+        rowEnds[doc - from] = size;
+      }
+    }
+  }
+
+  public int getNumDocuments() {
+    return rowOffsets.length - 1;
+  }
+
+  public int getNumTopics() {
+    return numTopics;
+  }
+
+  /**
+   * The fraction of the document's (non-stopword) tokens assigned to each topic. A document with
+   * no tokens left after filtering gets all zeros.
+   */
+  public float[] getTopicProportions(int documentIndex) {
+    float[] proportions = new float[numTopics];
+    for (int i = rowOffsets[documentIndex]; i < rowOffsets[documentIndex + 1]; i++) {
+      proportions[topicIndices[i]] = values[i];
+    }
+    return proportions;
+  }
+
+  /**
+   * @return the whole matrix as a new row-major array of numDocuments * numTopics floats
+   */
+  public float[] toDenseArray() {
+    long cells = (long) getNumDocuments() * numTopics;
+    if (cells > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Matrix has " + cells + " cells, too many for one array. " +
+                                      "Use writeDense(File) and mapDense instead.");
+    }
+    float[] dense = new float[(int) cells];
+    for (int doc = 0; doc < getNumDocuments(); doc++) {
+      for (int i = rowOffsets[doc]; i < rowOffsets[doc + 1]; i++) {
+        dense[doc * numTopics + topicIndices[i]] = values[i];
+      }
+    }
+    return dense;
+  }
+
+  // CSR arrays. These are the matrix's own storage and must not be modified.
+
+  public int[] getRowOffsets() {
+    return rowOffsets;
+  }
+
+  public int[] getTopicIndices() {
+    return topicIndices;
+  }
+
+  public float[] getValues() {
+    return values;
+  }
+
+  /**
+   * Writes the matrix densely to a file: numDocuments * numTopics big-endian floats in row-major
+   * order, with no header. The file is written through memory-mapped windows, so the dense matrix
+   * never has to fit on the heap.
+   */
+  public void writeDense(File file) throws IOException {
+    long rowBytes = 4L * numTopics;
+    long totalBytes = rowBytes * getNumDocuments();
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(0); // so cells left out of the sparse rows read as zero
+      raf.setLength(totalBytes);
+      FileChannel channel = raf.getChannel();
+      int rowsPerWindow = (int) Math.max(1, MAX_MAPPED_BYTES / rowBytes);
+      for (int firstDoc = 0; firstDoc < getNumDocuments(); firstDoc += rowsPerWindow) {
+        int numRows = Math.min(rowsPerWindow, getNumDocuments() - firstDoc);
+        MappedByteBuffer window =
+          channel.map(FileChannel.MapMode.READ_WRITE, firstDoc * rowBytes, numRows * rowBytes);
+        FloatBuffer floats = window.asFloatBuffer();
+        for (int row = 0; row < numRows; row++) {
+          int doc = firstDoc + row;
+          for (int i = rowOffsets[doc]; i < rowOffsets[doc + 1]; i++) {
+            floats.put(row * numTopics + topicIndices[i], values[i]);
+          }
+        }
+        window.force();
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Maps rows of a file written by {@link #writeDense(File)} read-only. Row r of the returned
+   * buffer starts at index (r - firstDocument) * numTopics. A single window can hold at most 2GB.
+   */
+  public static FloatBuffer mapDense(File file, int numTopics, int firstDocument,
+                                     int numDocuments) throws IOException {
+    long rowBytes = 4L * numTopics;
+    if (rowBytes * numDocuments > MAX_MAPPED_BYTES) {
+      throw new IllegalArgumentException("Can map at most " + (MAX_MAPPED_BYTES / rowBytes) +
+                                         " rows of " + numTopics + " topics at once");
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      ByteBuffer window = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                               firstDocument * rowBytes, numDocuments * rowBytes);
+      return window.asFloatBuffer();
+    } finally {
+      // The mapping stays valid after the channel is closed.
+      raf.close();
+    }
+  }
+}
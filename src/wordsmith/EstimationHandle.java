@@ -0,0 +1,158 @@
+package wordsmith;
+
+/**
+ * Limits and stops one run of Wordsmith.extractTopicsFromDocuments, and reports how far it got.
+ *
+ * Give it a wall-clock budget as a HumanTime string such as "2h30m", hand it to
+ * extractTopicsFromDocuments, and call cancel() from any other thread to stop early. Either
+ * way, estimation stops cleanly between sampling iterations: the model is left consistent, the
+ * results are published and the usual output files are written, just with fewer iterations
+ * behind them.
+ *
+ * The clock starts when extractTopicsFromDocuments does, so pruning, phrase detection and
+ * setting up the sampler all count against the budget. An iteration that has started can't be
+ * abandoned, so estimation finishes the iteration in progress before stopping. The budget
+ * accounts for that by stopping when the next iteration would probably run past it, and always
+ * allows at least one. Writing the final model and state files happens after the budget and is
+ * not counted against it.
+ *
+ * Only models made with Wordsmith.createNewModel can be stopped early.
+ */
+public class EstimationHandle {
+  private long budgetMillis = -1;
+  private volatile boolean cancelled = false;
+
+  private volatile boolean running = false;
+  private volatile boolean outOfTime = false;
+  private volatile int iterationsCompleted = 0;
+  private volatile int numIterations = 0;
+  private volatile long elapsedMillis = 0;
+  private long startNanos;
+
+  public EstimationHandle() {
+  }
+
+  /**
+   * @param timeBudget how long estimation may run, as understood by HumanTime.eval
+   */
+  public EstimationHandle(String timeBudget) {
+    setTimeBudget(timeBudget);
+  }
+
+  /**
+   * @param timeBudget how long estimation may run, e.g. "45m" or "2h30m"
+   */
+  public void setTimeBudget(String timeBudget) {
+    long millis = HumanTime.eval(timeBudget).getDelta();
+    if (millis <= 0) {
+      throw new IllegalArgumentException("Couldn't read a time budget from \"" + timeBudget +
+                                         "\"; try something like \"2h30m\".");
+    }
+    budgetMillis = millis;
+  }
+
+  public void setTimeBudgetMillis(long millis) {
+    budgetMillis = millis;
+  }
+
+  /**
+   * @return the time budget, or -1 if there is none
+   */
+  public long getTimeBudgetMillis() {
+    return budgetMillis;
+  }
+
+  /**
+   * Asks estimation to stop at the next iteration boundary. Safe to call from any thread, and
+   * before estimation has started, in which case it stops after its first iteration.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * @return true if estimation stopped because the time budget ran out
+   */
+  public boolean isOutOfTime() {
+    return outOfTime;
+  }
+
+  /**
+   * @return true if estimation ended before running all of its iterations
+   */
+  public boolean isStoppedEarly() {
+    return !running && iterationsCompleted < numIterations;
+  }
+
+  public int getIterationsCompleted() {
+    return iterationsCompleted;
+  }
+
+  /**
+   * @return the number of iterations that were asked for
+   */
+  public int getNumIterations() {
+    return numIterations;
+  }
+
+  public long getElapsedMillis() {
+    return running ? (System.nanoTime() - startNanos) / 1000000 : elapsedMillis;
+  }
+
+  void started(int numIterations) {
+    this.numIterations = numIterations;
+    iterationsCompleted = 0;
+    outOfTime = false;
+    startNanos = System.nanoTime();
+    running = true;
+  }
+
+  /**
+   * Called between iterations. When there is a budget, it stops if the next iteration would
+   * probably end past the deadline.
+   */
+  boolean shouldStop(int completed, long lastIterationNanos) {
+    iterationsCompleted = completed;
+    if (cancelled) {
+      return true;
+    }
+    if (budgetMillis >= 0 && completed > 0) {
+      long deadline = startNanos + budgetMillis * 1000000;
+      if (System.nanoTime() + lastIterationNanos > deadline) {
+        outOfTime = true;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  void finished(int completed) {
+    iterationsCompleted = completed;
+    elapsedMillis = (System.nanoTime() - startNanos) / 1000000;
+    running = false;
+  }
+
+  public String toString() {
+    String ran = iterationsCompleted + " of " + numIterations + " iterations in " +
+                 HumanTime.exactly(getElapsedMillis());
+    if (!running && numIterations == 0) {
+      return "Not started";
+    } else if (running) {
+      return "Running, " + ran;
+    } else if (!isStoppedEarly()) {
+      return "Finished " + ran;
+    } else if (outOfTime) {
+      return "Ran out of time (" + HumanTime.exactly(budgetMillis) + ") after " + ran;
+    } else {
+      return "Cancelled after " + ran;
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package wordsmith;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import cc.mallet.types.Alphabet;
+
+/**
+ * A vocabulary of a fixed number of buckets that words are hashed into, for streams too long to
+ * keep an entry for every word, typo and URL fragment they contain. Memory stays the same no
+ * matter how much text goes through; the price is that words sharing a bucket share counts, so
+ * use a few times more buckets than the distinct words you care about.
+ *
+ * To show topics as words rather than bucket numbers, each bucket keeps a small sample of the
+ * words hashed into it, with approximate counts (the Space-Saving algorithm: a new word takes
+ * over the least counted slot when the bucket is full). A bucket is labelled with its most
+ * frequent word, or "#bucket" if nothing landed in it.
+ *
+ * Not thread-safe; Wordsmith only adds words from one thread at a time.
+ */
+public class HashedVocabulary {
+  private final int mask;
+  private final int samplesPerBucket;
+  private final String[] samples;
+  private final int[] counts;
+  private final Alphabet buckets;
+
+  /**
+   * @param numBuckets how many distinct words the vocabulary can tell apart; rounded up to a power
+   *        of two
+   * @param samplesPerBucket how many of the words in each bucket to remember
+   */
+  public HashedVocabulary(int numBuckets, int samplesPerBucket) {
+    if (numBuckets < 1 || numBuckets > (1 << 30)) {
+      throw new IllegalArgumentException("The number of buckets must be from 1 to 2^30.");
+    }
+    int size = Integer.highestOneBit(numBuckets);
+    if (size < numBuckets) {
+      size <<= 1;
+    }
+    this.mask = size - 1;
+    this.samplesPerBucket = Math.max(1, samplesPerBucket);
+    this.samples = new String[size * this.samplesPerBucket];
+    this.counts = new int[size * this.samplesPerBucket];
+
+    // Mallet needs an alphabet to size the model; these are replaced by labels() for display.
+    this.buckets = new Alphabet();
+    for (int i = 0; i < size; i++) {
+      buckets.lookupIndex("#" + i, true);
+    }
+    buckets.stopGrowth();
+  }
+
+  public HashedVocabulary(int numBuckets) {
+    this(numBuckets, 4);
+  }
+
+  public int getNumBuckets() {
+    return mask + 1;
+  }
+
+  /**
+   * @return the bucket the word hashes to
+   */
+  public int bucketOf(String word) {
+    // Murmur3's finalizer, so similar words spread over the buckets.
+    int h = word.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h & mask;
+  }
+
+  /**
+   * @return the word's bucket, after counting it towards the bucket's sample
+   */
+  int add(String word) {
+    int bucket = bucketOf(word);
+    int start = bucket * samplesPerBucket;
+    int least = start;
+    for (int i = start; i < start + samplesPerBucket; i++) {
+      if (samples[i] == null) {
+        samples[i] = word;
+        counts[i] = 1;
+        return bucket;
+      }
+      if (samples[i].equals(word)) {
+        counts[i]++;
+        return bucket;
+      }
+      if (counts[i] < counts[least]) {
+        least = i;
+      }
+    }
+    samples[least] = word;
+    counts[least]++;
+    return bucket;
+  }
+
+  /**
+   * @return the words seen in the bucket, most frequent first; at most samplesPerBucket of them
+   */
+  public String[] getSamples(int bucket) {
+    int start = bucket * samplesPerBucket;
+    int found = 0;
+    while (found < samplesPerBucket && samples[start + found] != null) {
+      found++;
+    }
+    Integer[] order = new Integer[found];
+    for (int i = 0; i < found; i++) {
+      order[i] = start + i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return counts[b] - counts[a];
+      }
+    });
+    String[] words = new String[found];
+    for (int i = 0; i < found; i++) {
+      words[i] = samples[order[i]];
+    }
+    return words;
+  }
+
+  /**
+   * @return the bucket's label: its most frequent word, or "#bucket" if it's empty
+   */
+  public String getLabel(int bucket) {
+    int start = bucket * samplesPerBucket;
+    int best = -1;
+    for (int i = start; i < start + samplesPerBucket && samples[i] != null; i++) {
+      if (best < 0 || counts[i] > counts[best]) {
+        best = i;
+      }
+    }
+    return best < 0 ? "#" + bucket : samples[best];
+  }
+
+  /**
+   * The alphabet that hashed feature sequences are built on: one placeholder entry per bucket.
+   */
+  Alphabet getBucketAlphabet() {
+    return buckets;
+  }
+
+  /**
+   * @return an alphabet with every bucket's current label, in bucket order
+   */
+  Alphabet labels() {
+    Alphabet labels = new Alphabet();
+    for (int bucket = 0; bucket <= mask; bucket++) {
+      String label = getLabel(bucket);
+      if (labels.lookupIndex(label, true) != bucket) {
+        // A word only ever lands in one bucket, so this takes a word like "#12", which
+        // Wordsmith's tokenizers never make.
+        throw new IllegalStateException("Two buckets are both labelled " + label);
+      }
+    }
+    return labels;
+  }
+}
@@ -0,0 +1,322 @@
+package wordsmith;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureSequence;
+
+/**
+ * Remembers the words of every file Wordsmith has tokenized, in a file of its own, so that adding
+ * the same directory again (say, nightly, when only a few files have changed) only reads and
+ * tokenizes the files that are new or different.
+ *
+ * A file is reused if its path and size match what was cached and either its modification time
+ * does too or, if only that changed, its contents hash to the same SHA-1. Words are stored as ids
+ * into the cache's own word list and translated into the instance list's alphabet on the way
+ * out, so the alphabet ends up as if every file had been tokenized, whatever order things
+ * happen in.
+ *
+ * The cache also records how documents were tokenized (HTML, stemming and stopword settings).
+ * If those have changed since it was saved, it starts over empty.
+ */
+public class IngestionCache {
+  private static final int MAGIC = 0x57534943; // "WSIC"
+  private static final int VERSION = 1;
+
+  private final File file;
+  private String settings = null;
+  private boolean dirty = false;
+
+  // The cache's own vocabulary.
+  private final ArrayList<String> words = new ArrayList<String>();
+  private final HashMap<String, Integer> wordIds = new HashMap<String, Integer>();
+
+  private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+  // Cache word id -> alphabet id, and back, for the alphabet they were built for.
+  private Alphabet mappedAlphabet = null;
+  private int[] toAlphabet = new int[0];
+  private int[] fromAlphabet = new int[0];
+
+  private int hits = 0;
+  private int misses = 0;
+
+  private static class Entry {
+    final long size;
+    long modified;
+    final byte[] hash;
+    final int[] words;
+
+    Entry(long size, long modified, byte[] hash, int[] words) {
+      this.size = size;
+      this.modified = modified;
+      this.hash = hash;
+      this.words = words;
+    }
+  }
+
+  /**
+   * Loads the cache from the file if it exists. A file that can't be read is reported and
+   * ignored; it will be overwritten by the next save.
+   */
+  public IngestionCache(File file) {
+    this.file = file;
+    if (!file.exists()) {
+      return;
+    }
+    try {
+      load();
+    } catch (IOException e) {
+      System.err.println("Ignoring the ingestion cache " + file + ": " + e.getMessage());
+      words.clear();
+      wordIds.clear();
+      entries.clear();
+      settings = null;
+    }
+  }
+
+  /**
+   * Empties the cache if it was built with different tokenization settings.
+   */
+  void checkSettings(String currentSettings) {
+    if (settings != null && !settings.equals(currentSettings)) {
+      System.out.println("Tokenization settings have changed; rebuilding the ingestion cache.");
+      words.clear();
+      wordIds.clear();
+      entries.clear();
+      mappedAlphabet = null;
+      dirty = true;
+    }
+    if (settings == null || !settings.equals(currentSettings)) {
+      settings = currentSettings;
+      dirty = true;
+    }
+  }
+
+  /**
+   * @param size the file's size, and its modification time, as they were taken before reading it
+   * @param hash the SHA-1 of its contents, or null to only accept it if its modification time
+   *        hasn't changed. Only a lookup with the hash counts as a miss.
+   * @return the file's words on the alphabet if the cached ones are still good, or null
+   */
+  FeatureSequence lookup(File document, long size, long modified, byte[] hash,
+                         Alphabet alphabet) {
+    Entry entry = entries.get(document.getAbsolutePath());
+    boolean same = entry != null && entry.size == size
+                   && (entry.modified == modified || Arrays.equals(entry.hash, hash));
+    if (!same) {
+      if (hash != null) {
+        misses++;
+      }
+      return null;
+    }
+    if (entry.modified != modified) {
+      entry.modified = modified;
+      dirty = true;
+    }
+    hits++;
+
+    mapTo(alphabet);
+    int[] features = new int[entry.words.length];
+    for (int i = 0; i < features.length; i++) {
+      int word = entry.words[i];
+      if (toAlphabet[word] < 0) {
+        toAlphabet[word] = alphabet.lookupIndex(words.get(word), true);
+      }
+      features[i] = toAlphabet[word];
+    }
+    return new FeatureSequence(alphabet, features);
+  }
+
+  /**
+   * Remembers the words a file was tokenized into.
+   *
+   * @param hash the SHA-1 of the very bytes that were tokenized
+   */
+  void store(File document, long size, long modified, byte[] hash, FeatureSequence features) {
+    Alphabet alphabet = features.getAlphabet();
+    mapTo(alphabet);
+    if (fromAlphabet.length < alphabet.size()) {
+      fromAlphabet = grow(fromAlphabet, alphabet.size());
+    }
+    int[] ids = new int[features.getLength()];
+    for (int i = 0; i < ids.length; i++) {
+      int feature = features.getIndexAtPosition(i);
+      if (fromAlphabet[feature] < 0) {
+        String word = (String) alphabet.lookupObject(feature);
+        Integer id = wordIds.get(word);
+        if (id == null) {
+          id = words.size();
+          words.add(word);
+          wordIds.put(word, id);
+        }
+        fromAlphabet[feature] = id;
+      }
+      ids[i] = fromAlphabet[feature];
+    }
+    entries.put(document.getAbsolutePath(), new Entry(size, modified, hash, ids));
+    dirty = true;
+  }
+
+  private void mapTo(Alphabet alphabet) {
+    if (alphabet != mappedAlphabet) {
+      mappedAlphabet = alphabet;
+      toAlphabet = new int[0];
+      fromAlphabet = new int[0];
+    }
+    if (toAlphabet.length < words.size()) {
+      toAlphabet = grow(toAlphabet, words.size());
+    }
+  }
+
+  private static int[] grow(int[] map, int size) {
+    int[] bigger = Arrays.copyOf(map, Math.max(size, map.length * 2));
+    Arrays.fill(bigger, map.length, bigger.length, -1);
+    return bigger;
+  }
+
+  /**
+   * @return the first size bytes of the file, so they can be both hashed and tokenized
+   */
+  static byte[] read(File document, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("it's too big to cache");
+    }
+    byte[] contents = new byte[(int) size];
+    DataInputStream in = new DataInputStream(new FileInputStream(document));
+    try {
+      in.readFully(contents);
+    } finally {
+      in.close();
+    }
+    return contents;
+  }
+
+  static byte[] hash(byte[] contents) {
+    try {
+      return MessageDigest.getInstance("SHA-1").digest(contents);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Every Java has SHA-1", e);
+    }
+  }
+
+  /**
+   * @return how many files were reused from the cache since it was loaded
+   */
+  public int getHits() {
+    return hits;
+  }
+
+  /**
+   * @return how many files had to be tokenized since it was loaded
+   */
+  public int getMisses() {
+    return misses;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  // FILE ------------------------------------------------------------------------------------------
+
+  /**
+   * Writes the cache out if anything has changed, leaving out files that no longer exist. Writes
+   * to a temporary file first and renames it over the old cache, so a crash can't leave a
+   * half-written cache behind. Where a rename can't replace a file (on Windows), the old cache
+   * is deleted first, and a crash in between loses it.
+   */
+  public void save() throws IOException {
+    for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+      if (!new File(it.next().getKey()).exists()) {
+        it.remove();
+        dirty = true;
+      }
+    }
+    if (!dirty) {
+      return;
+    }
+
+    File temporary = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new GZIPOutputStream(new FileOutputStream(temporary), 1 << 16)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(settings == null ? "" : settings);
+      out.writeInt(words.size());
+      for (int i = 0; i < words.size(); i++) {
+        out.writeUTF(words.get(i));
+      }
+      out.writeInt(entries.size());
+      for (Map.Entry<String, Entry> e : entries.entrySet()) {
+        Entry entry = e.getValue();
+        out.writeUTF(e.getKey());
+        out.writeLong(entry.size);
+        out.writeLong(entry.modified);
+        out.write(entry.hash);
+        out.writeInt(entry.words.length);
+        for (int i = 0; i < entry.words.length; i++) {
+          out.writeInt(entry.words[i]);
+        }
+      }
+    } finally {
+      out.close();
+    }
+    if (!temporary.renameTo(file) && (!file.delete() || !temporary.renameTo(file))) {
+      throw new IOException("Couldn't replace " + file + " with " + temporary);
+    }
+    dirty = false;
+  }
+
+  private void load() throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new GZIPInputStream(new FileInputStream(file), 1 << 16)));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("not an ingestion cache, or from another version of Wordsmith");
+      }
+      settings = in.readUTF();
+      int numWords = in.readInt();
+      for (int i = 0; i < numWords; i++) {
+        String word = in.readUTF();
+        words.add(word);
+        wordIds.put(word, i);
+      }
+      int numEntries = in.readInt();
+      for (int e = 0; e < numEntries; e++) {
+        String path = in.readUTF();
+        long size = in.readLong();
+        long modified = in.readLong();
+        byte[] hash = new byte[20];
+        in.readFully(hash);
+        int[] ids = new int[in.readInt()];
+        for (int i = 0; i < ids.length; i++) {
+          ids[i] = in.readInt();
+          if (ids[i] < 0 || ids[i] >= numWords) {
+            throw new IOException("it's corrupt (word " + ids[i] + " of " + numWords + ")");
+          }
+        }
+        entries.put(path, new Entry(size, modified, hash, ids));
+      }
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,432 @@
+package wordsmith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cc.mallet.pipe.Pipe;
+import cc.mallet.types.Instance;
+
+/**
+ * Reads a corpus stored one document per line in a single big file, as JSON Lines, CSV or TSV,
+ * for Wordsmith.addDocumentsInLinesFile. Millions of documents in one file load far faster than
+ * millions of tiny files through addDocumentsInDirectory.
+ *
+ * The file is cut into chunks at line breaks, and each chunk is memory-mapped, split into lines,
+ * parsed and tokenized on a pool of threads. The tokenized chunks are then handed on strictly in
+ * file order, so documents keep the order of their lines, and only a few chunks are in flight at
+ * once, so memory stays bounded however big the file is.
+ *
+ * From each record the text field becomes the document, the id field (if present) becomes the
+ * document's name, and every other field is kept as a String property of the instance.
+ * For JSON Lines the fields are the members of each line's object; nested objects and arrays are
+ * kept as their raw JSON. For CSV and TSV the first line is a header naming the columns, unless
+ * setHeader(false) is called, in which case the columns are named "0", "1" and so on. CSV fields
+ * may be quoted, with "" for a quote, but as with the other formats a record can't span lines.
+ */
+public class LineCorpusReader {
+  public static final int JSON_LINES = 0;
+  public static final int CSV = 1;
+  public static final int TSV = 2;
+
+  private static final long MIN_CHUNK_BYTES = 1 << 20;
+  private static final long MAX_CHUNK_BYTES = 64 << 20;
+
+  private final int format;
+  private String textField = "text";
+  private String idField = "id";
+  private boolean header = true;
+
+  /**
+   * @param format JSON_LINES, CSV or TSV
+   */
+  public LineCorpusReader(int format) {
+    if (format != JSON_LINES && format != CSV && format != TSV) {
+      throw new IllegalArgumentException("Unknown format " + format);
+    }
+    this.format = format;
+  }
+
+  /**
+   * Sets the field holding each document's text. The default is "text".
+   */
+  public LineCorpusReader setTextField(String field) {
+    this.textField = field;
+    return this;
+  }
+
+  /**
+   * Sets the field holding each document's id. The default is "id".
+   */
+  public LineCorpusReader setIdField(String field) {
+    this.idField = field;
+    return this;
+  }
+
+  /**
+   * Says whether a CSV or TSV file starts with a header line naming its columns (the default).
+   */
+  public LineCorpusReader setHeader(boolean header) {
+    this.header = header;
+    return this;
+  }
+
+  /**
+   * Receives tokenized documents, in file order, on the thread that called read.
+   */
+  interface Sink {
+    void add(Instance tokenized);
+  }
+
+  /**
+   * Reads the whole file, tokenizing with one tokenizer per thread, and gives each document to
+   * the sink as an Instance whose data is the tokenizer's output and whose source is the text.
+   */
+  void read(File file, final Wordsmith tokenizers, int numThreads, Sink sink) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    final FileChannel channel = raf.getChannel();
+    numThreads = Math.max(1, numThreads);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      long size = channel.size();
+      long start = skipByteOrderMark(channel);
+      String[] columns = null;
+      if (format != JSON_LINES) {
+        if (header) {
+          long headerEnd = findLineStart(channel, start);
+          columns = split(decodeLine(channel, start, headerEnd));
+          start = headerEnd;
+        }
+      }
+      final String[] columnNames = columns;
+      // The pipes share Wordsmith's stoplist but only read it, so each thread can have its own.
+      final ThreadLocal<Pipe> tokenizer = new ThreadLocal<Pipe>() {
+        protected Pipe initialValue() {
+          return tokenizers.makeTokenizingPipe();
+        }
+      };
+
+      long chunkBytes = Math.max(MIN_CHUNK_BYTES,
+                                 Math.min(MAX_CHUNK_BYTES, (size - start) / (numThreads * 8L) + 1));
+      LinkedList<Future<ArrayList<Instance>>> inFlight =
+          new LinkedList<Future<ArrayList<Instance>>>();
+      while (start < size || !inFlight.isEmpty()) {
+        while (start < size && inFlight.size() < numThreads * 2) {
+          final long from = start;
+          final long to = findLineStart(channel, Math.min(size, start + chunkBytes));
+          inFlight.add(executor.submit(new Callable<ArrayList<Instance>>() {
+            public ArrayList<Instance> call() throws IOException {
+              return readChunk(channel, from, to, columnNames, tokenizer.get());
+            }
+          }));
+          start = to;
+        }
+        ArrayList<Instance> chunk = inFlight.removeFirst().get();
+        for (int i = 0; i < chunk.size(); i++) {
+          sink.add(chunk.get(i));
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading " + file);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException("Couldn't read " + file, e.getCause());
+    } finally {
+      executor.shutdownNow();
+      raf.close();
+    }
+  }
+
+  private ArrayList<Instance> readChunk(FileChannel channel, long from, long to, String[] columns,
+                                        Pipe tokenizer) throws IOException {
+    ArrayList<Instance> documents = new ArrayList<Instance>();
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+    byte[] line = new byte[256];
+    int length = 0;
+    int lineStart = 0;
+    ArrayList<String> names = new ArrayList<String>();
+    ArrayList<String> values = new ArrayList<String>();
+    while (buffer.hasRemaining()) {
+      byte b = buffer.get();
+      if (b != '\n') {
+        if (length == line.length) {
+          byte[] longer = new byte[line.length * 2];
+          System.arraycopy(line, 0, longer, 0, length);
+          line = longer;
+        }
+        line[length++] = b;
+        if (buffer.hasRemaining()) {
+          continue;
+        }
+      }
+      if (length > 0 && line[length - 1] == '\r') {
+        length--;
+      }
+      if (length > 0) {
+        String text = new String(line, 0, length, "UTF-8");
+        names.clear();
+        values.clear();
+        if (format == JSON_LINES) {
+          try {
+            new JsonLine(text).readObject(names, values);
+          } catch (IllegalArgumentException e) {
+            throw new IOException("Bad JSON at byte " + (from + lineStart) + ": " + e.getMessage());
+          }
+        } else {
+          String[] fields = split(text);
+          for (int i = 0; i < fields.length; i++) {
+            names.add(columns != null && i < columns.length ? columns[i] : Integer.toString(i));
+            values.add(fields[i]);
+          }
+        }
+        documents.add(toInstance(names, values, tokenizer));
+      }
+      length = 0;
+      lineStart = buffer.position();
+    }
+    return documents;
+  }
+
+  private Instance toInstance(ArrayList<String> names, ArrayList<String> values, Pipe tokenizer) {
+    String text = "";
+    String id = null;
+    for (int i = 0; i < names.size(); i++) {
+      if (names.get(i).equals(textField)) {
+        text = values.get(i);
+      } else if (names.get(i).equals(idField)) {
+        id = values.get(i);
+      }
+    }
+    Instance instance = tokenizer.instanceFrom(new Instance(text, null, id, text));
+    for (int i = 0; i < names.size(); i++) {
+      String name = names.get(i);
+      if (!name.equals(textField) && !name.equals(idField)) {
+        instance.setProperty(name, values.get(i));
+      }
+    }
+    return instance;
+  }
+
+  // LINES -----------------------------------------------------------------------------------------
+
+  private static long skipByteOrderMark(FileChannel channel) throws IOException {
+    ByteBuffer bom = ByteBuffer.allocate(3);
+    channel.read(bom, 0);
+    return bom.position() == 3 && (bom.get(0) & 0xff) == 0xEF && (bom.get(1) & 0xff) == 0xBB &&
+           (bom.get(2) & 0xff) == 0xBF ? 3 : 0;
+  }
+
+  /**
+   * @return the offset just after the first line break at or after position, or the file size
+   */
+  private static long findLineStart(FileChannel channel, long position) throws IOException {
+    long size = channel.size();
+    ByteBuffer buffer = ByteBuffer.allocate(8192);
+    while (position < size) {
+      buffer.clear();
+      int read = channel.read(buffer, position);
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == '\n') {
+          return position + i + 1;
+        }
+      }
+      position += read;
+    }
+    return size;
+  }
+
+  private static String decodeLine(FileChannel channel, long from, long to) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate((int) (to - from));
+    channel.read(buffer, from);
+    String line = new String(buffer.array(), 0, buffer.position(), "UTF-8");
+    int end = line.length();
+    while (end > 0 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r')) {
+      end--;
+    }
+    return line.substring(0, end);
+  }
+
+  private String[] split(String line) {
+    ArrayList<String> fields = new ArrayList<String>();
+    if (format == TSV) {
+      int start = 0;
+      for (int tab = line.indexOf('\t'); tab >= 0; tab = line.indexOf('\t', start)) {
+        fields.add(line.substring(start, tab));
+        start = tab + 1;
+      }
+      fields.add(line.substring(start));
+    } else {
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      for (int i = 0; i < line.length(); i++) {
+        char c = line.charAt(i);
+        if (quoted) {
+          if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+            field.append('"');
+            i++;
+          } else if (c == '"') {
+            quoted = false;
+          } else {
+            field.append(c);
+          }
+        } else if (c == '"') {
+          quoted = true;
+        } else if (c == ',') {
+          fields.add(field.toString());
+          field.setLength(0);
+        } else {
+          field.append(c);
+        }
+      }
+      fields.add(field.toString());
+    }
+    return fields.toArray(new String[fields.size()]);
+  }
+
+  // JSON ------------------------------------------------------------------------------------------
+
+  /**
+   * Just enough JSON to read one flat object per line.
+   */
+  private static class JsonLine {
+    private final String json;
+    private int pos = 0;
+
+    JsonLine(String json) {
+      this.json = json;
+    }
+
+    void readObject(ArrayList<String> names, ArrayList<String> values) {
+      skipSpace();
+      expect('{');
+      skipSpace();
+      if (peek() == '}') {
+        return;
+      }
+      while (true) {
+        skipSpace();
+        names.add(readString());
+        skipSpace();
+        expect(':');
+        skipSpace();
+        values.add(readValue());
+        skipSpace();
+        if (peek() == ',') {
+          pos++;
+        } else {
+          expect('}');
+          return;
+        }
+      }
+    }
+
+    private String readValue() {
+      char c = peek();
+      if (c == '"') {
+        return readString();
+      }
+      int start = pos;
+      if (c == '{' || c == '[') {
+        skipNested();
+      } else {
+        while (pos < json.length() && ",}] \t".indexOf(json.charAt(pos)) < 0) {
+          pos++;
+        }
+      }
+      return json.substring(start, pos);
+    }
+
+    private void skipNested() {
+      int depth = 0;
+      do {
+        char c = peek();
+        if (c == '"') {
+          readString();
+          continue;
+        }
+        if (c == '{' || c == '[') {
+          depth++;
+        } else if (c == '}' || c == ']') {
+          depth--;
+        }
+        pos++;
+      } while (depth > 0);
+    }
+
+    private String readString() {
+      expect('"');
+      StringBuilder out = new StringBuilder();
+      while (true) {
+        char c = peek();
+        pos++;
+        if (c == '"') {
+          return out.toString();
+        } else if (c != '\\') {
+          out.append(c);
+          continue;
+        }
+        char escaped = peek();
+        pos++;
+        switch (escaped) {
+          case 'n':
+            out.append('\n');
+            break;
+          case 't':
+            out.append('\t');
+            break;
+          case 'r':
+            out.append('\r');
+            break;
+          case 'b':
+            out.append('\b');
+            break;
+          case 'f':
+            out.append('\f');
+            break;
+          case 'u':
+            if (pos + 4 > json.length()) {
+              throw new IllegalArgumentException("short \\u escape");
+            }
+            out.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+            pos += 4;
+            break;
+          default:
+            out.append(escaped);
+        }
+      }
+    }
+
+    private void skipSpace() {
+      while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    private char peek() {
+      if (pos >= json.length()) {
+        throw new IllegalArgumentException("unexpected end of line");
+      }
+      return json.charAt(pos);
+    }
+
+    private void expect(char c) {
+      if (peek() != c) {
+        throw new IllegalArgumentException("expected '" + c + "' at column " + pos);
+      }
+      pos++;
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package wordsmith;
+
+import cc.mallet.types.FeatureSequence;
+import gnu.trove.TLongIntHashMap;
+
+/**
+ * Spots near-duplicate documents (retweets, templated posts) in a single pass as they are added,
+ * using MinHash signatures over pairs of adjacent words and LSH banding.
+ *
+ * Each document's signature is split into bands; documents that agree on every value in any one
+ * band are candidates, and a candidate counts as a duplicate if the two signatures agree in at
+ * least the similarity threshold's share of places, which estimates the Jaccard similarity of
+ * their word pairs. The band layout is picked so that pairs around the threshold are likely to
+ * become candidates.
+ *
+ * Memory is bounded: only the most recent maxRemembered documents are kept to compare against,
+ * in a ring buffer, and the oldest are forgotten as new ones arrive. Duplicates further apart in
+ * the stream than that are not caught.
+ */
+public class NearDuplicateFilter {
+  private static final int NUM_HASHES = 64;
+
+  private final double threshold;
+  private final int bands;
+  private final int rows;
+  private final int maxRemembered;
+  private final long[] hashSeeds = new long[NUM_HASHES];
+
+  // Ring buffer of remembered documents: their signatures and whatever id the caller gave them.
+  private final int[] signatures;
+  private final int[] ids;
+  private int next = 0;
+  private int remembered = 0;
+
+  // Per band, the band's hash -> ring buffer slot of the latest document with it.
+  private final TLongIntHashMap[] bandTables;
+
+  private final int[] signature = new int[NUM_HASHES];
+
+  /**
+   * @param threshold how similar (0 to 1) two documents' word pairs must be to count as duplicates
+   * @param maxRemembered how many recent documents to compare new ones against
+   */
+  public NearDuplicateFilter(double threshold, int maxRemembered) {
+    if (threshold <= 0 || threshold > 1) {
+      throw new IllegalArgumentException("The similarity threshold must be above 0 and at most 1.");
+    }
+    this.threshold = threshold;
+    this.maxRemembered = maxRemembered;
+
+    // Choose bands * rows = NUM_HASHES with the LSH threshold (1/bands)^(1/rows) nearest ours.
+    int bestRows = 1;
+    for (int r = 1; r <= NUM_HASHES; r *= 2) {
+      if (Math.abs(Math.pow(1.0 * r / NUM_HASHES, 1.0 / r) - threshold) <
+          Math.abs(Math.pow(1.0 * bestRows / NUM_HASHES, 1.0 / bestRows) - threshold)) {
+        bestRows = r;
+      }
+    }
+    this.rows = bestRows;
+    this.bands = NUM_HASHES / bestRows;
+
+    long seed = 0x9E3779B97F4A7C15L;
+    for (int i = 0; i < NUM_HASHES; i++) {
+      seed = mix(seed + i);
+      hashSeeds[i] = seed;
+    }
+
+    signatures = new int[maxRemembered * NUM_HASHES];
+    ids = new int[maxRemembered];
+    bandTables = new TLongIntHashMap[bands];
+    for (int band = 0; band < bands; band++) {
+      bandTables[band] = new TLongIntHashMap();
+    }
+  }
+
+  public double getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Checks a document against the remembered ones. If it is a near-duplicate of one, returns that
+   * document's id; otherwise remembers this one under the given id and returns -1. Documents
+   * with no words are never duplicates and are not remembered.
+   */
+  public int check(FeatureSequence words, int id) {
+    if (words.getLength() == 0) {
+      return -1;
+    }
+    computeSignature(words);
+
+    for (int band = 0; band < bands; band++) {
+      long key = bandKey(signature, 0, band);
+      if (bandTables[band].containsKey(key)) {
+        int slot = bandTables[band].get(key);
+        if (agreement(slot) >= threshold) {
+          return ids[slot];
+        }
+      }
+    }
+
+    remember(id);
+    return -1;
+  }
+
+  private void computeSignature(FeatureSequence words) {
+    for (int i = 0; i < NUM_HASHES; i++) {
+      signature[i] = Integer.MAX_VALUE;
+    }
+    int length = words.getLength();
+    // One-word documents get a single shingle of their own.
+    int shingles = length == 1 ? 1 : length - 1;
+    for (int s = 0; s < shingles; s++) {
+      long shingle = length == 1
+                     ? words.getIndexAtPosition(0)
+                     : ((long) words.getIndexAtPosition(s) << 32) | words.getIndexAtPosition(s + 1);
+      long base = mix(shingle);
+      for (int i = 0; i < NUM_HASHES; i++) {
+        int hash = (int) (mix(base ^ hashSeeds[i]) >>> 33);
+        if (hash < signature[i]) {
+          signature[i] = hash;
+        }
+      }
+    }
+  }
+
+  private double agreement(int slot) {
+    int offset = slot * NUM_HASHES;
+    int same = 0;
+    for (int i = 0; i < NUM_HASHES; i++) {
+      if (signatures[offset + i] == signature[i]) {
+        same++;
+      }
+    }
+    return same / (double) NUM_HASHES;
+  }
+
+  private void remember(int id) {
+    int slot = next;
+    int offset = slot * NUM_HASHES;
+    if (remembered == maxRemembered) {
+      // Forget the oldest, unless a newer document has since taken over its band entries.
+      for (int band = 0; band < bands; band++) {
+        long key = bandKey(signatures, offset, band);
+        if (bandTables[band].get(key) == slot && bandTables[band].containsKey(key)) {
+          bandTables[band].remove(key);
+        }
+      }
+    } else {
+      remembered++;
+    }
+
+    System.arraycopy(signature, 0, signatures, offset, NUM_HASHES);
+    ids[slot] = id;
+    for (int band = 0; band < bands; band++) {
+      bandTables[band].put(bandKey(signature, 0, band), slot);
+    }
+    next = (next + 1) % maxRemembered;
+  }
+
+  private long bandKey(int[] sig, int offset, int band) {
+    long key = band;
+    for (int r = 0; r < rows; r++) {
+      key = mix(key * 31 + sig[offset + band * rows + r]);
+    }
+    return key;
+  }
+
+  // The splitmix64 finalizer.
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,353 @@
+package wordsmith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cc.mallet.topics.ParallelTopicModel;
+import cc.mallet.topics.WorkerRunnable;
+import cc.mallet.util.Randoms;
+
+/**
+ * A ParallelTopicModel that reports on its own estimation.
+ *
+ * Mallet's estimate() loop has no listener hooks, so this class runs the loop itself: the same
+ * sampling threads, hyperparameter optimization, checkpoints and console output as Mallet's, with
+ * a boundary after each iteration where it records metrics and tells any TrainingListeners. Top
+ * words are printed at the interval the caller asked for, but not through Mallet's
+ * printTopWords, which sorts every topic's whole vocabulary; they use the same bounded selection
+ * TrainingProgress offers listeners.
+ *
+ * The same boundary is where an EstimationHandle gets to stop estimation early, leaving the
+ * model as it was after the last finished iteration.
+ *
+ * Saved models are instances of this class, so reading one back takes Wordsmith as well as
+ * Mallet. The metrics and listeners aren't saved; a model read back needs attach() before they
+ * see its estimation.
+ */
+class ObservableTopicModel extends ParallelTopicModel {
+  private static final long serialVersionUID = 1L;
+
+  // None of this is part of the saved model.
+  private transient int threads = 1;
+  private transient WordsmithMetrics metrics;
+  private transient List<TrainingListener> listeners;
+  private transient TrainingProgress progress;
+  private transient EstimationHandle handle;
+  private transient boolean estimating = false;
+
+  ObservableTopicModel(int numberOfTopics, double alpha, double beta, WordsmithMetrics metrics,
+                       List<TrainingListener> listeners) {
+    super(numberOfTopics, alpha, beta);
+    this.metrics = metrics;
+    this.listeners = listeners;
+  }
+
+  /**
+   * Reconnects a model read back from a file, whose metrics and listeners weren't saved.
+   */
+  void attach(WordsmithMetrics metrics, List<TrainingListener> listeners) {
+    this.metrics = metrics;
+    this.listeners = listeners;
+  }
+
+  public void setNumThreads(int threads) {
+    // Mallet's own copy isn't visible outside its package.
+    this.threads = threads;
+    super.setNumThreads(threads);
+  }
+
+  /**
+   * Sets the handle that can stop the next estimate() early, or null for none.
+   */
+  void setEstimationHandle(EstimationHandle handle) {
+    this.handle = handle;
+  }
+
+  public void estimate() throws IOException {
+    long start = System.currentTimeMillis();
+    if (metrics != null) {
+      long tokens = 0;
+      for (int doc = 0; doc < data.size(); doc++) {
+        tokens += data.get(doc).topicSequence.getLength();
+      }
+      metrics.recordEstimationStarted(tokens);
+    }
+
+    int completed = 0;
+    estimating = true;
+    progress = new TrainingProgress(this);
+    try {
+      completed = sample(start);
+    } finally {
+      estimating = false;
+      progress = null;
+      if (handle != null) {
+        handle.finished(completed);
+      }
+    }
+    if (metrics != null) {
+      metrics.recordEstimate(System.currentTimeMillis() - start);
+    }
+  }
+
+  /**
+   * Mallet's estimate() loop (from ParallelTopicModel in Mallet 2.0), with iterationFinished
+   * called after each iteration.
+   *
+   * @return the number of iterations run
+   */
+  private int sample(long start) throws IOException {
+    int numThreads = Math.max(1, threads);
+    WorkerRunnable[] runnables = new WorkerRunnable[numThreads];
+    int docsPerThread = data.size() / numThreads;
+    int offset = 0;
+    if (numThreads > 1) {
+      for (int thread = 0; thread < numThreads; thread++) {
+        // Each thread samples against its own copy of the counts; they're merged after each
+        // iteration.
+        int[] runnableTotals = new int[numTopics];
+        System.arraycopy(tokensPerTopic, 0, runnableTotals, 0, numTopics);
+        int[][] runnableCounts = new int[numTypes][];
+        for (int type = 0; type < numTypes; type++) {
+          runnableCounts[type] = typeTopicCounts[type].clone();
+        }
+        if (thread == numThreads - 1) {
+          docsPerThread = data.size() - offset;
+        }
+        runnables[thread] = new WorkerRunnable(numTopics, alpha, alphaSum, beta, newRandoms(),
+                                               data, runnableCounts, runnableTotals, offset,
+                                               docsPerThread);
+        runnables[thread].initializeAlphaStatistics(docLengthCounts.length);
+        offset += docsPerThread;
+      }
+    } else {
+      runnables[0] = new WorkerRunnable(numTopics, alpha, alphaSum, beta, newRandoms(), data,
+                                        typeTopicCounts, tokensPerTopic, offset, docsPerThread);
+      runnables[0].initializeAlphaStatistics(docLengthCounts.length);
+      runnables[0].makeOnlyThread();
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    int iteration = 1;
+    try {
+      for (; iteration <= numIterations; iteration++) {
+        long iterationStart = System.currentTimeMillis();
+        if (showTopicsInterval != 0 && iteration % showTopicsInterval == 0) {
+          System.out.println();
+          printProgress(System.out, wordsPerTopic, false);
+        }
+        if (saveStateInterval != 0 && iteration % saveStateInterval == 0) {
+          printState(new File(stateFilename + '.' + iteration));
+        }
+        if (saveModelInterval != 0 && iteration % saveModelInterval == 0) {
+          write(new File(modelFilename + '.' + iteration));
+        }
+
+        long samplingStart = System.nanoTime();
+        boolean collectAlphaStatistics = iteration > burninPeriod && optimizeInterval != 0
+                                         && iteration % saveSampleInterval == 0;
+        if (numThreads > 1) {
+          runInParallel(executor, runnables, collectAlphaStatistics);
+        } else {
+          if (collectAlphaStatistics) {
+            runnables[0].collectAlphaStatistics();
+          }
+          runnables[0].run();
+        }
+        long samplingNanos = System.nanoTime() - samplingStart;
+
+        long elapsedMillis = System.currentTimeMillis() - iterationStart;
+        System.out.print(elapsedMillis < 1000 ? elapsedMillis + "ms "
+                                              : elapsedMillis / 1000 + "s ");
+        if (iteration > burninPeriod && optimizeInterval != 0
+            && iteration % optimizeInterval == 0) {
+          optimizeAlpha(runnables);
+          optimizeBeta(runnables);
+          System.out.print("[O " + (System.currentTimeMillis() - iterationStart) + "] ");
+        }
+        if (iteration % 10 == 0) {
+          System.out.println("<" + iteration + "> ");
+          if (printLogLikelihood) {
+            System.out.println(modelLogLikelihood() / totalTokens);
+          }
+        }
+        System.out.flush();
+
+        if (iterationFinished(iteration, samplingNanos, start)) {
+          iteration++;
+          break;
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    long seconds = Math.round((System.currentTimeMillis() - start) / 1000.0);
+    long minutes = seconds / 60;
+    seconds %= 60;
+    long hours = minutes / 60;
+    minutes %= 60;
+    long days = hours / 24;
+    hours %= 24;
+    System.out.print("\nTotal time: ");
+    if (days != 0) {
+      System.out.print(days + " days ");
+    }
+    if (hours != 0) {
+      System.out.print(hours + " hours ");
+    }
+    if (minutes != 0) {
+      System.out.print(minutes + " minutes ");
+    }
+    System.out.println(seconds + " seconds");
+    return iteration - 1;
+  }
+
+  private Randoms newRandoms() {
+    return randomSeed == -1 ? new Randoms() : new Randoms(randomSeed);
+  }
+
+  private void runInParallel(ExecutorService executor, WorkerRunnable[] runnables,
+                             boolean collectAlphaStatistics) {
+    List<Future<?>> running = new ArrayList<Future<?>>(runnables.length);
+    for (int thread = 0; thread < runnables.length; thread++) {
+      if (collectAlphaStatistics) {
+        runnables[thread].collectAlphaStatistics();
+      }
+      running.add(executor.submit(runnables[thread]));
+    }
+    for (Future<?> future : running) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while sampling", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("A sampling thread failed", e.getCause());
+      }
+    }
+
+    // Merge every thread's changes into the model's counts, then hand the merged counts back.
+    sumTypeTopicCounts(runnables);
+    for (int thread = 0; thread < runnables.length; thread++) {
+      System.arraycopy(tokensPerTopic, 0, runnables[thread].getTokensPerTopic(), 0, numTopics);
+      int[][] runnableCounts = runnables[thread].getTypeTopicCounts();
+      for (int type = 0; type < numTypes; type++) {
+        int[] target = runnableCounts[type];
+        int[] source = typeTopicCounts[type];
+        for (int i = 0; i < source.length && (source[i] != 0 || target[i] != 0); i++) {
+          target[i] = source[i];
+        }
+      }
+    }
+  }
+
+  /**
+   * Records the iteration and tells the listeners about it.
+   *
+   * @return true if the estimation handle says to stop here
+   */
+  private boolean iterationFinished(int iteration, long samplingNanos, long start) {
+    progress.iteration = iteration;
+    if (metrics != null) {
+      metrics.recordIteration(samplingNanos);
+    }
+    if (listeners != null && !listeners.isEmpty()) {
+      progress.numIterations = numIterations;
+      progress.lastIterationMillis = samplingNanos / 1000000;
+      progress.elapsedMillis = System.currentTimeMillis() - start;
+      for (TrainingListener listener : listeners) {
+        try {
+          listener.iterationFinished(progress);
+        } catch (RuntimeException e) {
+          // Throwing out of here would abandon the sampling threads mid-estimate.
+          System.err.println("Training listener failed at iteration " + iteration + ": " + e);
+        }
+      }
+    }
+    return handle != null && iteration < numIterations
+           && handle.shouldStop(iteration, samplingNanos);
+  }
+
+  private void printProgress(PrintStream out, int numWords, boolean usingNewLines) {
+    StringBuilder text = new StringBuilder();
+    for (int topic = 0; topic < numTopics; topic++) {
+      String[] words = progress.getTopWordsForTopic(topic, numWords);
+      text.append(topic).append('\t').append((float) alpha[topic]);
+      for (int i = 0; i < words.length; i++) {
+        text.append(usingNewLines ? "\n\t" : (i == 0 ? "\t" : " ")).append(words[i]);
+      }
+      text.append('\n');
+    }
+    out.print(text);
+  }
+
+  /**
+   * Regroups the current word-topic counts by topic in one pass over typeTopicCounts:
+   * words[topic] and counts[topic] are filled with lengths[topic] entries, and replaced with
+   * bigger arrays when they are too small.
+   */
+  void countsByTopic(int[][] words, int[][] counts, int[] lengths) {
+    Arrays.fill(lengths, 0);
+    for (int type = 0; type < numTypes; type++) {
+      int[] topicCounts = typeTopicCounts[type];
+      for (int i = 0; i < topicCounts.length && topicCounts[i] > 0; i++) {
+        lengths[topicCounts[i] & topicMask]++;
+      }
+    }
+    for (int topic = 0; topic < numTopics; topic++) {
+      if (words[topic] == null || words[topic].length < lengths[topic]) {
+        words[topic] = new int[lengths[topic]];
+        counts[topic] = new int[lengths[topic]];
+      }
+      lengths[topic] = 0;
+    }
+    for (int type = 0; type < numTypes; type++) {
+      int[] topicCounts = typeTopicCounts[type];
+      for (int i = 0; i < topicCounts.length && topicCounts[i] > 0; i++) {
+        int topic = topicCounts[i] & topicMask;
+        words[topic][lengths[topic]] = type;
+        counts[topic][lengths[topic]] = topicCounts[i] >> topicBits;
+        lengths[topic]++;
+      }
+    }
+  }
+
+  double logLikelihoodPerToken() {
+    return modelLogLikelihood() / totalTokens;
+  }
+
+  public double modelLogLikelihood() {
+    double logLikelihood = super.modelLogLikelihood();
+    if (estimating && metrics != null) {
+      metrics.recordLogLikelihood(logLikelihood / totalTokens);
+    }
+    return logLikelihood;
+  }
+
+  public void printState(File f) throws IOException {
+    long start = System.nanoTime();
+    super.printState(f);
+    checkpointFinished(start);
+  }
+
+  public void write(File f) {
+    long start = System.nanoTime();
+    super.write(f);
+    checkpointFinished(start);
+  }
+
+  private void checkpointFinished(long start) {
+    if (estimating && metrics != null) {
+      metrics.recordCheckpoint((System.nanoTime() - start) / 1000000);
+    }
+  }
+}
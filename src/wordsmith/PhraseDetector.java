@@ -0,0 +1,201 @@
+package wordsmith;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import gnu.trove.TLongIntHashMap;
+import gnu.trove.TLongIntIterator;
+import gnu.trove.TLongIntProcedure;
+
+/**
+ * Finds multi-word terms ("new york", "machine learning") in a corpus and merges them into single
+ * words, like "new_york", so topics can use them.
+ *
+ * Each round makes two passes over the documents. The first counts every word and every pair of
+ * adjacent words, keying pairs by the two word ids packed into a long. The pairs seen at least
+ * minCount times whose normalized pointwise mutual information,
+ *
+ * <pre>
+ * npmi(a, b) = log(p(a b) / (p(a) p(b))) / -log(p(a b))
+ * </pre>
+ *
+ * is at least the threshold become phrases. NPMI runs from -1 to 1, where 1 means the two words
+ * only ever appear together, and 0 means they are independent. The second pass rewrites each
+ * document, merging phrases left to right. Later rounds can join a phrase with another word, so
+ * two rounds find phrases of up to three words.
+ *
+ * Pair counts are the only thing that grows with the corpus. When there are more than
+ * maxPairs of them, the rarest are thrown away, as they would hardly have reached minCount
+ * anyway. Phrases are found among adjacent words after stopwords are removed, so "bank of
+ * america" can become "bank_america".
+ */
+public class PhraseDetector {
+  public static final char JOINER = '_';
+
+  private final int minCount;
+  private final double threshold;
+  private int maxWords = 3;
+  private int maxPairs = 20000000;
+
+  /**
+   * @param minCount how many times a pair of words must appear together to be a phrase
+   * @param threshold the least NPMI, from -1 to 1, for a pair to be a phrase; 0.5 is a good start
+   */
+  public PhraseDetector(int minCount, double threshold) {
+    if (threshold <= -1 || threshold > 1) {
+      throw new IllegalArgumentException("The NPMI threshold must be above -1 and at most 1.");
+    }
+    this.minCount = Math.max(1, minCount);
+    this.threshold = threshold;
+  }
+
+  /**
+   * Sets the most words a phrase can have. The default is 3.
+   */
+  public PhraseDetector setMaxWords(int maxWords) {
+    this.maxWords = Math.max(2, maxWords);
+    return this;
+  }
+
+  /**
+   * Sets how many distinct pairs to count before forgetting the rarest. The default is 20 million,
+   * a few hundred megabytes.
+   */
+  public PhraseDetector setMaxPairs(int maxPairs) {
+    this.maxPairs = Math.max(1000, maxPairs);
+    return this;
+  }
+
+  /**
+   * Merges phrases in every document of the list, adding them to its alphabet.
+   *
+   * @return the number of phrases found
+   */
+  public int apply(InstanceList documents) {
+    Alphabet alphabet = documents.getDataAlphabet();
+    int found = 0;
+    for (int round = 1; round < maxWords; round++) {
+      TLongIntHashMap phrases = findPhrases(documents, alphabet);
+      if (phrases.isEmpty()) {
+        break;
+      }
+      found += phrases.size();
+      merge(documents, alphabet, phrases);
+    }
+    return found;
+  }
+
+  // FIRST PASS: COUNT -----------------------------------------------------------------------------
+
+  /**
+   * @return the chosen pairs, mapped to the id of their phrase
+   */
+  private TLongIntHashMap findPhrases(InstanceList documents, Alphabet alphabet) {
+    int[] wordCounts = new int[alphabet.size()];
+    final TLongIntHashMap pairCounts = new TLongIntHashMap();
+    long numTokens = 0;
+    int forgetBelow = 1;
+
+    for (int d = 0; d < documents.size(); d++) {
+      FeatureSequence words = (FeatureSequence) documents.get(d).getData();
+      int[] ids = words.getFeatures();
+      int length = words.getLength();
+      numTokens += length;
+      for (int i = 0; i < length; i++) {
+        wordCounts[ids[i]]++;
+        if (i > 0) {
+          pairCounts.adjustOrPutValue(pack(ids[i - 1], ids[i]), 1, 1);
+        }
+      }
+      if (pairCounts.size() > maxPairs) {
+        forgetBelow++;
+        final int below = forgetBelow;
+        pairCounts.retainEntries(new TLongIntProcedure() {
+          public boolean execute(long pair, int count) {
+            return count >= below;
+          }
+        });
+      }
+    }
+
+    int[] wordLengths = new int[alphabet.size()];
+    for (int id = 0; id < wordLengths.length; id++) {
+      wordLengths[id] = numWords((String) alphabet.lookupObject(id));
+    }
+
+    TLongIntHashMap phrases = new TLongIntHashMap();
+    double logTokens = Math.log(numTokens);
+    for (TLongIntIterator it = pairCounts.iterator(); it.hasNext(); ) {
+      it.advance();
+      int count = it.value();
+      int first = (int) (it.key() >>> 32);
+      int second = (int) it.key();
+      if (count < minCount || wordLengths[first] + wordLengths[second] > maxWords) {
+        continue;
+      }
+      double logPair = Math.log(count) - logTokens;
+      double pmi = logPair - (Math.log(wordCounts[first]) - logTokens)
+                           - (Math.log(wordCounts[second]) - logTokens);
+      // A pair seen in every position has logPair 0; it's as associated as a pair can be.
+      double npmi = logPair == 0 ? 1 : pmi / -logPair;
+      if (npmi >= threshold) {
+        String phrase = alphabet.lookupObject(first) + String.valueOf(JOINER)
+                        + alphabet.lookupObject(second);
+        phrases.put(it.key(), alphabet.lookupIndex(phrase, true));
+      }
+    }
+    return phrases;
+  }
+
+  private static long pack(int first, int second) {
+    return ((long) first << 32) | (second & 0xffffffffL);
+  }
+
+  private static int numWords(String word) {
+    int words = 1;
+    for (int i = 0; i < word.length(); i++) {
+      if (word.charAt(i) == JOINER) {
+        words++;
+      }
+    }
+    return words;
+  }
+
+  // SECOND PASS: REWRITE --------------------------------------------------------------------------
+
+  private static void merge(InstanceList documents, Alphabet alphabet, TLongIntHashMap phrases) {
+    for (int d = 0; d < documents.size(); d++) {
+      Instance instance = documents.get(d);
+      FeatureSequence words = (FeatureSequence) instance.getData();
+      int[] ids = words.getFeatures();
+      int length = words.getLength();
+      int[] merged = null;
+      int mergedLength = 0;
+      for (int i = 0; i < length; i++) {
+        // Phrases are new to the alphabet, so never id 0, which get() returns for other pairs.
+        int phrase = i + 1 < length ? phrases.get(pack(ids[i], ids[i + 1])) : 0;
+        if (phrase > 0 && merged == null) {
+          // Most documents have no phrases; only copy the ones that do.
+          merged = new int[length - 1];
+          System.arraycopy(ids, 0, merged, 0, i);
+          mergedLength = i;
+        }
+        if (merged != null) {
+          merged[mergedLength++] = phrase > 0 ? phrase : ids[i];
+        }
+        if (phrase > 0) {
+          i++;
+        }
+      }
+      if (merged != null) {
+        boolean locked = instance.isLocked();
+        instance.unLock();
+        instance.setData(new FeatureSequence(alphabet, merged, mergedLength));
+        if (locked) {
+          instance.lock();
+        }
+      }
+    }
+  }
+}
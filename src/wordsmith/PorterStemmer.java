@@ -0,0 +1,341 @@
+package wordsmith;
+
+/**
+ * Martin Porter's 1980 suffix-stripping stemmer, for lowercase English words: "running",
+ * "runs" and "run" all become "run", and "connection" and "connected" become "connect". Stems
+ * aren't always words ("happy" becomes "happi").
+ *
+ * A straight port of the reference implementation at tartarus.org/martin/PorterStemmer. Not
+ * thread-safe: it reuses one buffer.
+ */
+class PorterStemmer {
+  private char[] b = new char[64];
+  private int k;  // End of the word being stemmed.
+  private int j;  // End of the stem once a suffix has matched.
+
+  /**
+   * @return the stem of a lowercase word; words of up to two letters are left alone
+   */
+  String stem(String word) {
+    int length = word.length();
+    if (length <= 2) {
+      return word;
+    }
+    for (int i = 0; i < length; i++) {
+      char c = word.charAt(i);
+      if (c < 'a' || c > 'z') {
+        // Not a plain English word; the rules would only mangle it.
+        return word;
+      }
+    }
+    if (b.length < length) {
+      b = new char[length * 2];
+    }
+    word.getChars(0, length, b, 0);
+    k = length - 1;
+    step1ab();
+    step1c();
+    step2();
+    step3();
+    step4();
+    step5();
+    return unchanged(word) ? word : new String(b, 0, k + 1);
+  }
+
+  private boolean unchanged(String word) {
+    if (k != word.length() - 1) {
+      return false;
+    }
+    for (int i = 0; i <= k; i++) {
+      if (b[i] != word.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // b[i] is a consonant: not a vowel, and not a 'y' after a consonant.
+  private boolean cons(int i) {
+    switch (b[i]) {
+      case 'a': case 'e': case 'i': case 'o': case 'u':
+        return false;
+      case 'y':
+        return i == 0 || !cons(i - 1);
+      default:
+        return true;
+    }
+  }
+
+  // The number of vowel-consonant sequences in b[0..j].
+  private int m() {
+    int n = 0;
+    int i = 0;
+    while (true) {
+      if (i > j) {
+        return n;
+      }
+      if (!cons(i)) {
+        break;
+      }
+      i++;
+    }
+    i++;
+    while (true) {
+      while (true) {
+        if (i > j) {
+          return n;
+        }
+        if (cons(i)) {
+          break;
+        }
+        i++;
+      }
+      i++;
+      n++;
+      while (true) {
+        if (i > j) {
+          return n;
+        }
+        if (!cons(i)) {
+          break;
+        }
+        i++;
+      }
+      i++;
+    }
+  }
+
+  private boolean vowelInStem() {
+    for (int i = 0; i <= j; i++) {
+      if (!cons(i)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean doubleConsonant(int i) {
+    return i >= 1 && b[i] == b[i - 1] && cons(i);
+  }
+
+  // b[i-2..i] is consonant-vowel-consonant, and the last isn't w, x or y: "hop", not "snow".
+  private boolean cvc(int i) {
+    if (i < 2 || !cons(i) || cons(i - 1) || !cons(i - 2)) {
+      return false;
+    }
+    char c = b[i];
+    return c != 'w' && c != 'x' && c != 'y';
+  }
+
+  private boolean ends(String s) {
+    int length = s.length();
+    int start = k - length + 1;
+    if (start < 0) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (b[start + i] != s.charAt(i)) {
+        return false;
+      }
+    }
+    j = k - length;
+    return true;
+  }
+
+  // Replaces b[j+1..k] with s.
+  private void setTo(String s) {
+    int length = s.length();
+    s.getChars(0, length, b, j + 1);
+    k = j + length;
+  }
+
+  private void replaceIfMeasured(String s) {
+    if (m() > 0) {
+      setTo(s);
+    }
+  }
+
+  // Plurals and -ed or -ing: caresses -> caress, ponies -> poni, meetings -> meet, hopping -> hop.
+  private void step1ab() {
+    if (b[k] == 's') {
+      if (ends("sses")) {
+        k -= 2;
+      } else if (ends("ies")) {
+        setTo("i");
+      } else if (b[k - 1] != 's') {
+        k--;
+      }
+    }
+    if (ends("eed")) {
+      if (m() > 0) {
+        k--;
+      }
+    } else if ((ends("ed") || ends("ing")) && vowelInStem()) {
+      k = j;
+      if (ends("at")) {
+        setTo("ate");
+      } else if (ends("bl")) {
+        setTo("ble");
+      } else if (ends("iz")) {
+        setTo("ize");
+      } else if (doubleConsonant(k)) {
+        k--;
+        char c = b[k];
+        if (c == 'l' || c == 's' || c == 'z') {
+          k++;
+        }
+      } else if (m() == 1 && cvc(k)) {
+        setTo("e");
+      }
+    }
+  }
+
+  // Terminal y to i when there's another vowel in the stem: happy -> happi.
+  private void step1c() {
+    if (ends("y") && vowelInStem()) {
+      b[k] = 'i';
+    }
+  }
+
+  // Double suffixes to single ones: -ization -> -ize, -ational -> -ate.
+  private void step2() {
+    if (k == 0) {
+      return;
+    }
+    switch (b[k - 1]) {
+      case 'a':
+        if (ends("ational")) { replaceIfMeasured("ate"); break; }
+        if (ends("tional")) { replaceIfMeasured("tion"); break; }
+        break;
+      case 'c':
+        if (ends("enci")) { replaceIfMeasured("ence"); break; }
+        if (ends("anci")) { replaceIfMeasured("ance"); break; }
+        break;
+      case 'e':
+        if (ends("izer")) { replaceIfMeasured("ize"); break; }
+        break;
+      case 'l':
+        if (ends("bli")) { replaceIfMeasured("ble"); break; }
+        if (ends("alli")) { replaceIfMeasured("al"); break; }
+        if (ends("entli")) { replaceIfMeasured("ent"); break; }
+        if (ends("eli")) { replaceIfMeasured("e"); break; }
+        if (ends("ousli")) { replaceIfMeasured("ous"); break; }
+        break;
+      case 'o':
+        if (ends("ization")) { replaceIfMeasured("ize"); break; }
+        if (ends("ation")) { replaceIfMeasured("ate"); break; }
+        if (ends("ator")) { replaceIfMeasured("ate"); break; }
+        break;
+      case 's':
+        if (ends("alism")) { replaceIfMeasured("al"); break; }
+        if (ends("iveness")) { replaceIfMeasured("ive"); break; }
+        if (ends("fulness")) { replaceIfMeasured("ful"); break; }
+        if (ends("ousness")) { replaceIfMeasured("ous"); break; }
+        break;
+      case 't':
+        if (ends("aliti")) { replaceIfMeasured("al"); break; }
+        if (ends("iviti")) { replaceIfMeasured("ive"); break; }
+        if (ends("biliti")) { replaceIfMeasured("ble"); break; }
+        break;
+      case 'g':
+        if (ends("logi")) { replaceIfMeasured("log"); break; }
+        break;
+      default:
+        break;
+    }
+  }
+
+  // -ic-, -full, -ness and the like: electrical -> electric, hopeful -> hope.
+  private void step3() {
+    switch (b[k]) {
+      case 'e':
+        if (ends("icate")) { replaceIfMeasured("ic"); break; }
+        if (ends("ative")) { replaceIfMeasured(""); break; }
+        if (ends("alize")) { replaceIfMeasured("al"); break; }
+        break;
+      case 'i':
+        if (ends("iciti")) { replaceIfMeasured("ic"); break; }
+        break;
+      case 'l':
+        if (ends("ical")) { replaceIfMeasured("ic"); break; }
+        if (ends("ful")) { replaceIfMeasured(""); break; }
+        break;
+      case 's':
+        if (ends("ness")) { replaceIfMeasured(""); break; }
+        break;
+      default:
+        break;
+    }
+  }
+
+  // -ant, -ence and the like, from stems with m() > 1: adjustment -> adjust.
+  private void step4() {
+    if (k == 0) {
+      return;
+    }
+    switch (b[k - 1]) {
+      case 'a':
+        if (ends("al")) { break; }
+        return;
+      case 'c':
+        if (ends("ance")) { break; }
+        if (ends("ence")) { break; }
+        return;
+      case 'e':
+        if (ends("er")) { break; }
+        return;
+      case 'i':
+        if (ends("ic")) { break; }
+        return;
+      case 'l':
+        if (ends("able")) { break; }
+        if (ends("ible")) { break; }
+        return;
+      case 'n':
+        if (ends("ant")) { break; }
+        if (ends("ement")) { break; }
+        if (ends("ment")) { break; }
+        if (ends("ent")) { break; }
+        return;
+      case 'o':
+        if (ends("ion") && j >= 0 && (b[j] == 's' || b[j] == 't')) { break; }
+        if (ends("ou")) { break; }
+        return;
+      case 's':
+        if (ends("ism")) { break; }
+        return;
+      case 't':
+        if (ends("ate")) { break; }
+        if (ends("iti")) { break; }
+        return;
+      case 'u':
+        if (ends("ous")) { break; }
+        return;
+      case 'v':
+        if (ends("ive")) { break; }
+        return;
+      case 'z':
+        if (ends("ize")) { break; }
+        return;
+      default:
+        return;
+    }
+    if (m() > 1) {
+      k = j;
+    }
+  }
+
+  // A final -e, and -ll to -l, on long enough stems: probate -> probat, controll -> control.
+  private void step5() {
+    j = k;
+    if (b[k] == 'e') {
+      int a = m();
+      if (a > 1 || a == 1 && !cvc(k - 1)) {
+        k--;
+      }
+    }
+    if (b[k] == 'l' && doubleConsonant(k) && m() > 1) {
+      k--;
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package wordsmith;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on some other Executor. This is
+ * what lets Wordsmith's asynchronous operations be queued back to back (ingest, then train, then
+ * export) even when the underlying executor has many threads.
+ */
+class SerialExecutor implements Executor {
+  private final LinkedList<Queued> tasks = new LinkedList<Queued>();
+  private Executor executor;
+  private Queued active = null;
+
+  private class Queued implements Runnable {
+    final Runnable task;
+
+    Queued(Runnable task) {
+      this.task = task;
+    }
+
+    public void run() {
+      try {
+        task.run();
+      } finally {
+        scheduleNext();
+      }
+    }
+  }
+
+  SerialExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Tasks already queued stay on the old executor; later ones go to the new one.
+   */
+  synchronized void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  public synchronized void execute(Runnable task) {
+    tasks.add(new Queued(task));
+    if (active == null) {
+      scheduleNext();
+    }
+  }
+
+  /**
+   * Hands the next task to the executor. A task the executor turns down (say, because it has
+   * been shut down) fails, and the one after it is tried, so none is left waiting forever.
+   */
+  private synchronized void scheduleNext() {
+    while ((active = tasks.poll()) != null) {
+      try {
+        executor.execute(active);
+        return;
+      } catch (RejectedExecutionException e) {
+        reject(active.task, e);
+      }
+    }
+  }
+
+  private static void reject(Runnable task, RejectedExecutionException e) {
+    if (task instanceof WordsmithFuture) {
+      ((WordsmithFuture<?>) task).fail(e);
+    } else if (task instanceof Future) {
+      ((Future<?>) task).cancel(false);
+    } else {
+      System.err.println("Couldn't start an asynchronous task: " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package wordsmith;
+
+public class SimilarDocument {
+  int documentIndex;
+  float distance;
+
+  public SimilarDocument(int documentIndex, float distance) {
+    this.documentIndex = documentIndex;
+    this.distance = distance;
+  }
+
+  public int getDocumentIndex() {
+    return documentIndex;
+  }
+
+  public float getDistance() {
+    return distance;
+  }
+}
@@ -0,0 +1,47 @@
+package wordsmith;
+
+import cc.mallet.pipe.Pipe;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.Instance;
+import cc.mallet.types.Token;
+import cc.mallet.types.TokenSequence;
+
+/**
+ * Like TokenSequence2StopwordlessFeatureSequence, but each word's feature is its bucket in a
+ * HashedVocabulary rather than an ever-growing alphabet entry.
+ */
+public class TokenSequence2HashedFeatureSequence extends Pipe {
+  private static final long serialVersionUID = 1L;
+
+  private final HashedVocabulary vocabulary;
+  private transient WordsmithMetrics metrics = null;
+
+  public TokenSequence2HashedFeatureSequence(HashedVocabulary vocabulary) {
+    super(vocabulary.getBucketAlphabet(), null);
+    this.vocabulary = vocabulary;
+  }
+
+  /**
+   * Counts kept and dropped tokens into the given metrics.
+   */
+  public TokenSequence2HashedFeatureSequence setMetrics(WordsmithMetrics metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+
+  public Instance pipe(Instance carrier) {
+    TokenSequence tokens = (TokenSequence) carrier.getData();
+    FeatureSequence features = new FeatureSequence(vocabulary.getBucketAlphabet(), tokens.size());
+    for (int i = 0; i < tokens.size(); i++) {
+      Token token = tokens.get(i);
+      if (!DocumentTopicCursor.isMarkedStopword(token)) {
+        features.add(vocabulary.add(token.getText()));
+      }
+    }
+    if (metrics != null) {
+      metrics.recordTokens(features.size(), tokens.size() - features.size());
+    }
+    carrier.setData(features);
+    return carrier;
+  }
+}
@@ -8,6 +8,8 @@ import cc.mallet.types.Token;
 import cc.mallet.types.TokenSequence;
 
 public class TokenSequence2StopwordlessFeatureSequence extends Pipe {
+  private transient WordsmithMetrics metrics = null;
+
   public TokenSequence2StopwordlessFeatureSequence (Alphabet dataDict) {
     super (dataDict, null);
   }
@@ -16,16 +18,27 @@ public class TokenSequence2StopwordlessFeatureSequence extends Pipe {
     super(new Alphabet(), null);
   }
   
+  /**
+   * Counts kept and dropped tokens into the given metrics.
+   */
+  public TokenSequence2StopwordlessFeatureSequence setMetrics (WordsmithMetrics metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+
   public Instance pipe (Instance carrier) {
     TokenSequence ts = (TokenSequence) carrier.getData();
     FeatureSequence ret =
       new FeatureSequence ((Alphabet)getDataAlphabet(), ts.size());
     for (int i = 0; i < ts.size(); i++) {
       Token t = ts.get(i);
-      if (t.getProperties() == null || !t.getProperty("stopword").equals(true)) {
+      if (!DocumentTopicCursor.isMarkedStopword(t)) {
         ret.add (t.getText());
       }
     }
+    if (metrics != null) {
+      metrics.recordTokens(ret.size(), ts.size() - ret.size());
+    }
     carrier.setData(ret);
     return carrier;
   }
@@ -0,0 +1,201 @@
+package wordsmith;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import cc.mallet.pipe.Pipe;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.Instance;
+import cc.mallet.types.Token;
+import cc.mallet.types.TokenSequence;
+
+/**
+ * Marks words that haven't yet been seen threshold times as stopwords, counting them in a
+ * CountMinSketch as documents stream through, so the stage that makes feature sequences never
+ * gives rare words a vocabulary entry. This replaces the exact second pass of
+ * Wordsmith.pruneWordsOccurringLessThanThreshold with memory that doesn't grow with the number of
+ * distinct words.
+ *
+ * Occurrences of a word that hasn't reached the threshold yet are held back, as the document and
+ * position they came from. When the word does reach it, they are put back into their documents,
+ * so a common word keeps all its occurrences. Only maxPending of them are held at once; beyond
+ * that the words that have been waiting longest are given up on, as they are the likeliest to be
+ * rare, and their held occurrences stay dropped. The sketch can overestimate, so a few words are
+ * let in slightly early, but no word is ever let in late.
+ *
+ * The feature stage after this one must be TokenSequence2StopwordlessFeatureSequence, or
+ * TokenSequence2HashedFeatureSequence on the given vocabulary, since occurrences are put back
+ * into the feature sequences they make.
+ */
+public class TokenSequenceMarkRareWords extends Pipe {
+  private static final long serialVersionUID = 1L;
+
+  /** How many occurrences are held back by default, about 40MB of them. */
+  public static final int DEFAULT_MAX_PENDING = 500000;
+
+  private final CountMinSketch counts;
+  private final int threshold;
+  private final HashedVocabulary vocabulary;
+  private final int maxPending;
+
+  // Held occurrences of each word, the words that have waited longest first.
+  private final LinkedHashMap<String, ArrayList<Pending>> pending =
+      new LinkedHashMap<String, ArrayList<Pending>>();
+  private int numPending = 0;
+
+  private static class PendingDocument {
+    final Instance instance;
+    // Its held occurrences, in token order.
+    final ArrayList<Pending> entries = new ArrayList<Pending>();
+
+    PendingDocument(Instance instance) {
+      this.instance = instance;
+    }
+  }
+
+  private static class Pending {
+    final PendingDocument document;
+    // Kept so that it can be unmarked, for whatever still has the document's tokens.
+    final Token token;
+    final int index;
+    // Where it goes in the document's feature sequence as it is now.
+    int position;
+
+    Pending(PendingDocument document, Token token, int index) {
+      this.document = document;
+      this.token = token;
+      this.index = index;
+    }
+  }
+
+  public TokenSequenceMarkRareWords(CountMinSketch counts, int threshold) {
+    this(counts, threshold, null, DEFAULT_MAX_PENDING);
+  }
+
+  /**
+   * @param vocabulary the hashed vocabulary of the feature stage, or null for an alphabet
+   * @param maxPending the most occurrences to hold back until their word reaches the threshold
+   */
+  public TokenSequenceMarkRareWords(CountMinSketch counts, int threshold,
+                                    HashedVocabulary vocabulary, int maxPending) {
+    if (maxPending < 0) {
+      throw new IllegalArgumentException("Can't hold back a negative number of words.");
+    }
+    this.counts = counts;
+    this.threshold = threshold;
+    this.vocabulary = vocabulary;
+    this.maxPending = maxPending;
+  }
+
+  public Instance pipe(Instance carrier) {
+    TokenSequence tokens = (TokenSequence) carrier.getData();
+    PendingDocument document = new PendingDocument(carrier);
+    for (int i = 0; i < tokens.size(); i++) {
+      Token token = tokens.get(i);
+      if (DocumentTopicCursor.isMarkedStopword(token)) {
+        continue;
+      }
+      String word = token.getText();
+      if (counts.add(word) < threshold) {
+        token.setProperty("stopword", true);
+        hold(word, new Pending(document, token, i));
+      } else if (!pending.isEmpty()) {
+        admit(word, document);
+      }
+    }
+
+    // Now that this document's tokens are settled, work out where its held ones would go.
+    int kept = 0;
+    int next = 0;
+    for (int i = 0; i < tokens.size() && next < document.entries.size(); i++) {
+      if (document.entries.get(next).index == i) {
+        document.entries.get(next++).position = kept;
+      } else if (!DocumentTopicCursor.isMarkedStopword(tokens.get(i))) {
+        kept++;
+      }
+    }
+    return carrier;
+  }
+
+  /**
+   * Lets go of the held occurrences, for when their documents are about to be rewritten or
+   * modeled. Words that haven't reached the threshold by then stay dropped.
+   */
+  public void forgetPending() {
+    pending.clear();
+    numPending = 0;
+  }
+
+  private void hold(String word, Pending entry) {
+    if (maxPending == 0) {
+      return;
+    }
+    ArrayList<Pending> entries = pending.get(word);
+    if (entries == null) {
+      entries = new ArrayList<Pending>(2);
+      pending.put(word, entries);
+    }
+    entries.add(entry);
+    entry.document.entries.add(entry);
+    numPending++;
+
+    for (Iterator<ArrayList<Pending>> it = pending.values().iterator();
+         numPending > maxPending; ) {
+      ArrayList<Pending> given = it.next();
+      it.remove();
+      numPending -= given.size();
+      for (int i = 0; i < given.size(); i++) {
+        given.get(i).document.entries.remove(given.get(i));
+      }
+    }
+  }
+
+  /**
+   * Puts the word's held occurrences back: unmarks them, which is enough for the current
+   * document, and inserts them into the feature sequences of earlier ones.
+   */
+  private void admit(String word, PendingDocument current) {
+    ArrayList<Pending> entries = pending.remove(word);
+    if (entries == null) {
+      return;
+    }
+    numPending -= entries.size();
+    for (int i = 0; i < entries.size(); i++) {
+      Pending entry = entries.get(i);
+      ArrayList<Pending> others = entry.document.entries;
+      others.remove(entry);
+      entry.token.setProperty("stopword", false);
+      if (entry.document == current
+          || !insert(entry.document.instance, entry.position, word)) {
+        continue;
+      }
+      for (int j = 0; j < others.size(); j++) {
+        if (others.get(j).index > entry.index) {
+          others.get(j).position++;
+        }
+      }
+    }
+  }
+
+  private boolean insert(Instance instance, int position, String word) {
+    if (!(instance.getData() instanceof FeatureSequence)) {
+      // It never made it through the feature stage.
+      return false;
+    }
+    FeatureSequence words = (FeatureSequence) instance.getData();
+    int length = words.getLength();
+    int[] ids = new int[length + 1];
+    System.arraycopy(words.getFeatures(), 0, ids, 0, position);
+    ids[position] = vocabulary != null ? vocabulary.add(word)
+                                       : words.getAlphabet().lookupIndex(word, true);
+    System.arraycopy(words.getFeatures(), position, ids, position + 1, length - position);
+    boolean locked = instance.isLocked();
+    instance.unLock();
+    instance.setData(new FeatureSequence(words.getAlphabet(), ids));
+    if (locked) {
+      instance.lock();
+    }
+    return true;
+  }
+}
@@ -0,0 +1,80 @@
+package wordsmith;
+
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cc.mallet.pipe.Pipe;
+import cc.mallet.types.Instance;
+import cc.mallet.types.Token;
+import cc.mallet.types.TokenSequence;
+
+/**
+ * Replaces each lowercased token with its Porter stem, so "run", "runs" and "running" count as
+ * one word, keeping what the document actually said in the token's "surface" property for
+ * display.
+ *
+ * Stems are remembered per distinct word in a cache that can be shared between pipes on
+ * different threads, so the stemmer runs about once per word rather than once per token. The
+ * cache stops taking new words once it holds maxCached of them; the common words, which come
+ * early, are in it by then. Words on the stoplist are left alone, so that the stopword stage
+ * that follows still recognizes them.
+ */
+public class TokenSequenceStem extends Pipe {
+  private static final long serialVersionUID = 1L;
+
+  public static final String SURFACE = "surface";
+  public static final int DEFAULT_MAX_CACHED = 1000000;
+
+  private final HashSet<String> stoplist;
+  private final ConcurrentHashMap<String, String> cache;
+  private final int maxCached;
+  private transient PorterStemmer stemmer;
+
+  public TokenSequenceStem(HashSet<String> stoplist) {
+    this(stoplist, new ConcurrentHashMap<String, String>(), DEFAULT_MAX_CACHED);
+  }
+
+  /**
+   * @param cache stems by word, which other TokenSequenceStems may share
+   */
+  public TokenSequenceStem(HashSet<String> stoplist, ConcurrentHashMap<String, String> cache,
+                           int maxCached) {
+    this.stoplist = stoplist;
+    this.cache = cache;
+    this.maxCached = maxCached;
+  }
+
+  public Instance pipe(Instance carrier) {
+    if (stemmer == null) {
+      stemmer = new PorterStemmer();
+    }
+    TokenSequence tokens = (TokenSequence) carrier.getData();
+    for (int i = 0; i < tokens.size(); i++) {
+      Token token = tokens.get(i);
+      String word = token.getText();
+      if (stoplist.contains(word)) {
+        continue;
+      }
+      String stem = cache.get(word);
+      if (stem == null) {
+        stem = stemmer.stem(word);
+        if (cache.size() < maxCached) {
+          cache.putIfAbsent(word, stem);
+        }
+      }
+      if (!stem.equals(word)) {
+        token.setProperty(SURFACE, word);
+        token.setText(stem);
+      }
+    }
+    return carrier;
+  }
+
+  /**
+   * @return the word as it appeared in the document, before any stemming
+   */
+  static String surfaceForm(Token token) {
+    Object surface = token.getProperties() == null ? null : token.getProperty(SURFACE);
+    return surface != null ? (String) surface : token.getText();
+  }
+}
@@ -0,0 +1,90 @@
+package wordsmith;
+
+import java.util.ArrayList;
+
+import cc.mallet.topics.ParallelTopicModel;
+import cc.mallet.topics.TopicAssignment;
+
+/**
+ * An immutable view of a finished topic model: top words and weights per topic and the topic
+ * proportions of each document.
+ *
+ * Wordsmith builds one of these after every estimation or model load and publishes it in a single
+ * volatile write. Everything the snapshot answers from is copied out of the model when it is
+ * built, so query threads can keep using it (without locks) while a new model is being trained;
+ * they pick up the new results by asking Wordsmith for its current snapshot again.
+ */
+public class TopicModelSnapshot {
+  private final int version;
+  private final int numTopics;
+  private final Object[] vocabulary;
+  private final TopicWordCache topicWords;
+
+  private final DocumentTopicMatrix documentTopics;
+
+  public TopicModelSnapshot(ParallelTopicModel lda, int version, int numThreads) {
+    this.version = version;
+    this.numTopics = lda.getNumTopics();
+    this.vocabulary = lda.getAlphabet().toArray();
+
+    ArrayList<TopicAssignment> data = lda.getData();
+    this.topicWords = new TopicWordCache(data, numTopics);
+
+    this.documentTopics = new DocumentTopicMatrix(data, numTopics, numThreads);
+  }
+
+  /**
+   * @return a number that increases every time Wordsmith publishes a new snapshot
+   */
+  public int getVersion() {
+    return version;
+  }
+
+  public int getNumTopics() {
+    return numTopics;
+  }
+
+  public int getNumDocuments() {
+    return documentTopics.getNumDocuments();
+  }
+
+  public String[] getTopWordsForTopic(int topic, int numWords) {
+    int[] wordIds = topicWords.getTopWordIds(topic, numWords);
+    numWords = Math.min(numWords, topicWords.getNumWords(topic));
+    String[] words = new String[numWords];
+    for (int i = 0; i < numWords; i++) {
+      words[i] = (String) vocabulary[wordIds[i]];
+    }
+    return words;
+  }
+
+  public WeightedWord[] getTopWeightedWordsForTopic(int topic, int numWords) {
+    int[] wordIds = topicWords.getTopWordIds(topic, numWords);
+    float[] weights = topicWords.getTopWordWeights(topic, numWords);
+    numWords = Math.min(numWords, topicWords.getNumWords(topic));
+    WeightedWord[] words = new WeightedWord[numWords];
+    for (int i = 0; i < numWords; i++) {
+      words[i] = new WeightedWord((String) vocabulary[wordIds[i]], weights[i]);
+    }
+    return words;
+  }
+
+  /**
+   * @return the number of words with a non-zero count in the topic
+   */
+  public int getNumWordsInTopic(int topic) {
+    return topicWords.getNumWords(topic);
+  }
+
+  /**
+   * The fraction of the document's (non-stopword) tokens assigned to each topic. A document with
+   * no tokens left after filtering gets all zeros.
+   */
+  public float[] getTopicProportionsForDocument(int documentIndex) {
+    return documentTopics.getTopicProportions(documentIndex);
+  }
+
+  public DocumentTopicMatrix getDocumentTopicMatrix() {
+    return documentTopics;
+  }
+}
@@ -0,0 +1,348 @@
+package wordsmith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Finds the documents whose topic proportions are closest to a given topic mixture.
+ *
+ * The index works straight off the sparse rows of a DocumentTopicMatrix. An exact index scans
+ * every document, touching only the topics each document actually uses, and keeps the best
+ * matches in a bounded heap; this is quick enough for corpora up to a few hundred thousand
+ * documents. An approximate index adds random-hyperplane hashing (several tables of sign bits
+ * over the square-rooted or normalized topic vectors), looks only at documents sharing a bucket
+ * with the query or differing from it by one bit, and ranks those exactly. It trades a little
+ * recall for scanning a small fraction of millions of documents.
+ *
+ * Distances are Hellinger (the default), Jensen-Shannon, or cosine distance (1 - cosine
+ * similarity). Instances are immutable once built and can be queried from any number of threads.
+ */
+public class TopicSimilarityIndex {
+  public static final int HELLINGER = 0;
+  public static final int JENSEN_SHANNON = 1;
+  public static final int COSINE = 2;
+
+  private static final double LOG_2 = Math.log(2);
+
+  private final DocumentTopicMatrix matrix;
+  private final int measure;
+  private final int numTopics;
+  private final int[] rowOffsets;
+  private final int[] topicIndices;
+  private final float[] values;
+  // Per-measure transform of values (square roots for Hellinger, nothing otherwise) and the
+  // Euclidean norm of each document's row, for cosine.
+  private final float[] scanValues;
+  private final float[] norms;
+
+  // Approximate search: hyperplanes[table][bit * numTopics + topic], and per table the document
+  // IDs ordered by their bucket key.
+  private final float[][] hyperplanes;
+  private final int bitsPerTable;
+  private final int[][] bucketKeys;
+  private final int[][] bucketDocs;
+
+  /**
+   * Builds an exact (brute-force) index.
+   */
+  public TopicSimilarityIndex(DocumentTopicMatrix matrix, int measure) {
+    this(matrix, measure, 0, 0, 0);
+  }
+
+  /**
+   * Builds an approximate index with numTables hash tables of bitsPerTable bits each. More
+   * tables raise recall, more bits make buckets smaller; 8 tables of 12 bits is a reasonable
+   * start for a million documents. Pass 0 tables for an exact index.
+   */
+  public TopicSimilarityIndex(DocumentTopicMatrix matrix, int measure, int numTables,
+                              int bitsPerTable, long seed) {
+    if (measure < HELLINGER || measure > COSINE) {
+      throw new IllegalArgumentException("Unknown distance measure " + measure);
+    }
+    if (numTables > 0 && (bitsPerTable < 1 || bitsPerTable > 30)) {
+      throw new IllegalArgumentException("bitsPerTable must be between 1 and 30");
+    }
+    this.matrix = matrix;
+    this.measure = measure;
+    this.numTopics = matrix.getNumTopics();
+    this.rowOffsets = matrix.getRowOffsets();
+    this.topicIndices = matrix.getTopicIndices();
+    this.values = matrix.getValues();
+
+    int numDocs = matrix.getNumDocuments();
+    scanValues = new float[values.length];
+    norms = new float[numDocs];
+    for (int doc = 0; doc < numDocs; doc++) {
+      double sumSquares = 0;
+      for (int i = rowOffsets[doc]; i < rowOffsets[doc + 1]; i++) {
+        scanValues[i] = measure == HELLINGER ? (float) Math.sqrt(values[i]) : values[i];
+        sumSquares += values[i] * values[i];
+      }
+      norms[doc] = (float) Math.sqrt(sumSquares);
+    }
+
+    this.bitsPerTable = bitsPerTable;
+    hyperplanes = new float[numTables][];
+    bucketKeys = new int[numTables][];
+    bucketDocs = new int[numTables][];
+    Random random = new Random(seed);
+    long[] packed = new long[numDocs];
+    for (int table = 0; table < numTables; table++) {
+      hyperplanes[table] = new float[bitsPerTable * numTopics];
+      for (int i = 0; i < hyperplanes[table].length; i++) {
+        hyperplanes[table][i] = (float) random.nextGaussian();
+      }
+      for (int doc = 0; doc < numDocs; doc++) {
+        packed[doc] = ((long) documentKey(table, doc) << 32) | doc;
+      }
+      Arrays.sort(packed);
+      bucketKeys[table] = new int[numDocs];
+      bucketDocs[table] = new int[numDocs];
+      for (int i = 0; i < numDocs; i++) {
+        bucketKeys[table][i] = (int) (packed[i] >>> 32);
+        bucketDocs[table][i] = (int) packed[i];
+      }
+    }
+  }
+
+  public DocumentTopicMatrix getMatrix() {
+    return matrix;
+  }
+
+  public boolean isApproximate() {
+    return hyperplanes.length > 0;
+  }
+
+  /**
+   * The numResults documents closest to the given topic mixture, closest first.
+   */
+  public SimilarDocument[] findNearest(float[] mixture, int numResults) {
+    return findNearest(mixture, numResults, -1);
+  }
+
+  /**
+   * The numResults documents closest to the given document, closest first, leaving out the
+   * document itself.
+   */
+  public SimilarDocument[] findSimilarDocuments(int documentIndex, int numResults) {
+    return findNearest(matrix.getTopicProportions(documentIndex), numResults, documentIndex);
+  }
+
+  private SimilarDocument[] findNearest(float[] mixture, int numResults, int exclude) {
+    if (numResults < 0) {
+      throw new IllegalArgumentException("Can't find " + numResults + " documents");
+    }
+    if (mixture.length != numTopics) {
+      throw new IllegalArgumentException("Expected a mixture over " + numTopics + " topics, got " +
+                                         mixture.length);
+    }
+    Query query = new Query(mixture);
+    Heap heap = new Heap(numResults);
+    if (isApproximate()) {
+      // Documents can turn up in several tables; only score each one once.
+      boolean[] seen = new boolean[matrix.getNumDocuments()];
+      if (exclude >= 0) {
+        seen[exclude] = true;
+      }
+      for (int table = 0; table < hyperplanes.length; table++) {
+        int key = queryKey(table, query.scanVector);
+        scanBucket(table, key, query, heap, seen);
+        for (int bit = 0; bit < bitsPerTable; bit++) {
+          scanBucket(table, key ^ (1 << bit), query, heap, seen);
+        }
+      }
+    } else {
+      for (int doc = 0; doc < matrix.getNumDocuments(); doc++) {
+        if (doc != exclude) {
+          heap.offer(doc, query.distanceTo(doc));
+        }
+      }
+    }
+    return heap.drain();
+  }
+
+  private void scanBucket(int table, int key, Query query, Heap heap, boolean[] seen) {
+    int[] keys = bucketKeys[table];
+    int[] docs = bucketDocs[table];
+    int i = Arrays.binarySearch(keys, key);
+    if (i < 0) {
+      return;
+    }
+    while (i > 0 && keys[i - 1] == key) {
+      i--;
+    }
+    for (; i < keys.length && keys[i] == key; i++) {
+      int doc = docs[i];
+      if (!seen[doc]) {
+        seen[doc] = true;
+        heap.offer(doc, query.distanceTo(doc));
+      }
+    }
+  }
+
+  private int documentKey(int table, int doc) {
+    float[] planes = hyperplanes[table];
+    int key = 0;
+    for (int bit = 0; bit < bitsPerTable; bit++) {
+      float dot = 0;
+      for (int i = rowOffsets[doc]; i < rowOffsets[doc + 1]; i++) {
+        dot += planes[bit * numTopics + topicIndices[i]] * hashValue(i);
+      }
+      if (dot >= 0) {
+        key |= 1 << bit;
+      }
+    }
+    return key;
+  }
+
+  private int queryKey(int table, float[] vector) {
+    float[] planes = hyperplanes[table];
+    int key = 0;
+    for (int bit = 0; bit < bitsPerTable; bit++) {
+      float dot = 0;
+      for (int topic = 0; topic < numTopics; topic++) {
+        dot += planes[bit * numTopics + topic] * vector[topic];
+      }
+      if (dot >= 0) {
+        key |= 1 << bit;
+      }
+    }
+    return key;
+  }
+
+  // Hashing always uses square-rooted proportions for the probability distances, since angles
+  // between those track Hellinger (and so roughly Jensen-Shannon) distance.
+  private float hashValue(int i) {
+    return measure == JENSEN_SHANNON ? (float) Math.sqrt(values[i]) : scanValues[i];
+  }
+
+  /**
+   * A query mixture prepared for one measure.
+   */
+  private class Query {
+    final float[] mixture;
+    final float[] scanVector;
+    double norm;
+    double baseDivergence;
+
+    Query(float[] mixture) {
+      this.mixture = mixture;
+      scanVector = new float[numTopics];
+      double sumSquares = 0;
+      for (int topic = 0; topic < numTopics; topic++) {
+        scanVector[topic] = measure == COSINE ? mixture[topic] : (float) Math.sqrt(mixture[topic]);
+        sumSquares += mixture[topic] * mixture[topic];
+        // For Jensen-Shannon, the contribution of every topic the document doesn't use.
+        baseDivergence += 0.5 * mixture[topic] * LOG_2;
+      }
+      norm = Math.sqrt(sumSquares);
+    }
+
+    float distanceTo(int doc) {
+      int start = rowOffsets[doc], end = rowOffsets[doc + 1];
+      switch (measure) {
+        case HELLINGER: {
+          // H(p, q) = sqrt(1 - sum sqrt(p q)) for distributions p and q
+          double coefficient = 0;
+          for (int i = start; i < end; i++) {
+            coefficient += scanValues[i] * scanVector[topicIndices[i]];
+          }
+          return (float) Math.sqrt(Math.max(0, 1 - coefficient));
+        }
+        case COSINE: {
+          if (norm == 0 || norms[doc] == 0) {
+            return 1;
+          }
+          double dot = 0;
+          for (int i = start; i < end; i++) {
+            dot += scanValues[i] * scanVector[topicIndices[i]];
+          }
+          return (float) (1 - dot / (norm * norms[doc]));
+        }
+        default: {
+          // Start from the divergence against an empty document and correct it for the topics
+          // this document does use, so only its non-zero entries are visited.
+          double divergence = baseDivergence;
+          for (int i = start; i < end; i++) {
+            double p = values[i], q = mixture[topicIndices[i]];
+            double m = (p + q) / 2;
+            divergence -= 0.5 * q * LOG_2;
+            divergence += 0.5 * p * Math.log(p / m);
+            if (q > 0) {
+              divergence += 0.5 * q * Math.log(q / m);
+            }
+          }
+          return (float) Math.sqrt(Math.max(0, divergence / LOG_2));
+        }
+      }
+    }
+  }
+
+  /**
+   * Keeps the n smallest distances seen, as a max-heap over parallel arrays.
+   */
+  private static class Heap {
+    final int[] docs;
+    final float[] distances;
+    int size = 0;
+
+    Heap(int capacity) {
+      docs = new int[capacity];
+      distances = new float[capacity];
+    }
+
+    void offer(int doc, float distance) {
+      if (size < docs.length) {
+        docs[size] = doc;
+        distances[size] = distance;
+        int i = size++;
+        while (i > 0 && distances[(i - 1) >>> 1] < distances[i]) {
+          swap(i, (i - 1) >>> 1);
+          i = (i - 1) >>> 1;
+        }
+      } else if (size > 0 && distance < distances[0]) {
+        docs[0] = doc;
+        distances[0] = distance;
+        siftDown(0, size);
+      }
+    }
+
+    SimilarDocument[] drain() {
+      for (int end = size - 1; end > 0; end--) {
+        swap(0, end);
+        siftDown(0, end);
+      }
+      SimilarDocument[] results = new SimilarDocument[size];
+      for (int i = 0; i < size; i++) {
+        results[i] = new SimilarDocument(docs[i], distances[i]);
+      }
+      return results;
+    }
+
+    private void siftDown(int i, int size) {
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) {
+          return;
+        }
+        if (child + 1 < size && distances[child + 1] > distances[child]) {
+          child++;
+        }
+        if (distances[child] <= distances[i]) {
+          return;
+        }
+        swap(i, child);
+        i = child;
+      }
+    }
+
+    private void swap(int a, int b) {
+      int d = docs[a];
+      docs[a] = docs[b];
+      docs[b] = d;
+      float f = distances[a];
+      distances[a] = distances[b];
+      distances[b] = f;
+    }
+  }
+}
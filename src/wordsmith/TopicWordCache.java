@@ -0,0 +1,202 @@
+package wordsmith;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import cc.mallet.topics.TopicAssignment;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.LabelSequence;
+import gnu.trove.TIntIntHashMap;
+
+/**
+ * Per-topic word counts held in primitive arrays, with the top words of each topic selected
+ * lazily and only as deep as they have been asked for.
+ *
+ * Mallet's getSortedWords() builds a TreeSet of the entire vocabulary for every topic, and
+ * getTopWords() does that for all topics at once. Here the counts are gathered in one pass over
+ * the topic assignments, and each topic's top N words are picked with a bounded heap the first
+ * time they are requested. Asking for more words later grows that topic's selection (at least
+ * doubling it) without touching the other topics.
+ *
+ * The counts are copied out of the model when the cache is built, so it stays valid while the
+ * model goes on sampling. Selections are published through an AtomicReferenceArray, so any number
+ * of threads may read concurrently without locking; two threads racing to grow the same topic just
+ * compute the same selection twice.
+ */
+public class TopicWordCache {
+  private final int numTopics;
+
+  // Words with a non-zero count in each topic, and their counts. Unordered.
+  private final int[][] topicWords;
+  private final int[][] topicCounts;
+
+  // Best-first selections, computed on demand.
+  private final AtomicReferenceArray<Selection> selections;
+
+  private static class Selection {
+    final int[] words;
+    final float[] weights;
+
+    Selection(int[] words, float[] weights) {
+      this.words = words;
+      this.weights = weights;
+    }
+  }
+
+  public TopicWordCache(ArrayList<TopicAssignment> data, int numTopics) {
+    this.numTopics = numTopics;
+    this.topicWords = new int[numTopics][];
+    this.topicCounts = new int[numTopics][];
+    this.selections = new AtomicReferenceArray<Selection>(numTopics);
+
+    TIntIntHashMap[] counts = new TIntIntHashMap[numTopics];
+    for (int topic = 0; topic < numTopics; topic++) {
+      counts[topic] = new TIntIntHashMap();
+    }
+    for (int doc = 0; doc < data.size(); doc++) {
+      FeatureSequence tokens = (FeatureSequence) data.get(doc).instance.getData();
+      LabelSequence topics = data.get(doc).topicSequence;
+      for (int pi = 0; pi < topics.getLength(); pi++) {
+        counts[topics.getIndexAtPosition(pi)].adjustOrPutValue(tokens.getIndexAtPosition(pi), 1, 1);
+      }
+    }
+    for (int topic = 0; topic < numTopics; topic++) {
+      topicWords[topic] = counts[topic].keys();
+      topicCounts[topic] = new int[topicWords[topic].length];
+      for (int i = 0; i < topicWords[topic].length; i++) {
+        topicCounts[topic][i] = counts[topic].get(topicWords[topic][i]);
+      }
+      counts[topic] = null;
+    }
+  }
+
+  public int getNumTopics() {
+    return numTopics;
+  }
+
+  /**
+   * @return the number of distinct words with a non-zero count in the topic
+   */
+  public int getNumWords(int topic) {
+    return topicWords[topic].length;
+  }
+
+  /**
+   * The IDs of the topic's most frequent words, best first. The returned array may be longer than
+   * numWords (it is the cached selection) and must not be modified.
+   */
+  public int[] getTopWordIds(int topic, int numWords) {
+    return ensureSelected(topic, numWords).words;
+  }
+
+  /**
+   * The counts matching {@link #getTopWordIds(int, int)}. Must not be modified.
+   */
+  public float[] getTopWordWeights(int topic, int numWords) {
+    return ensureSelected(topic, numWords).weights;
+  }
+
+  private Selection ensureSelected(int topic, int numWords) {
+    if (numWords < 0) {
+      throw new IllegalArgumentException("Can't select " + numWords + " top words");
+    }
+    int available = topicWords[topic].length;
+    if (numWords > available) {
+      numWords = available;
+    }
+    Selection current = selections.get(topic);
+    if (current != null && current.words.length >= numWords) {
+      return current;
+    }
+    if (current != null) {
+      numWords = Math.min(available, Math.max(numWords, current.words.length * 2));
+    }
+    Selection selection = select(topic, numWords);
+    selections.set(topic, selection);
+    return selection;
+  }
+
+  private Selection select(int topic, int n) {
+    int[] heapWords = new int[n];
+    int[] heapCounts = new int[n];
+    int size = selectTop(topicWords[topic], topicCounts[topic], topicWords[topic].length, n,
+                         heapWords, heapCounts);
+    float[] weights = new float[size];
+    for (int i = 0; i < size; i++) {
+      weights[i] = heapCounts[i];
+    }
+    return new Selection(heapWords, weights);
+  }
+
+  /**
+   * Partial selection of the n largest of the first length counts, using a min-heap of size n
+   * built in topWords and topCounts, then heap-sorted in place so the result is best first. Ties
+   * go to the lower word ID. Returns the number selected, at most n.
+   */
+  static int selectTop(int[] words, int[] counts, int length, int n,
+                       int[] topWords, int[] topCounts) {
+    int size = 0;
+    for (int i = 0; i < length && n > 0; i++) {
+      if (size < n) {
+        topWords[size] = words[i];
+        topCounts[size] = counts[i];
+        siftUp(topWords, topCounts, size);
+        size++;
+      } else if (worse(topWords[0], topCounts[0], words[i], counts[i])) {
+        topWords[0] = words[i];
+        topCounts[0] = counts[i];
+        siftDown(topWords, topCounts, 0, size);
+      }
+    }
+
+    // Repeatedly move the worst remaining entry to the end.
+    for (int end = size - 1; end > 0; end--) {
+      swap(topWords, topCounts, 0, end);
+      siftDown(topWords, topCounts, 0, end);
+    }
+    return size;
+  }
+
+  // True if (wordA, countA) ranks below (wordB, countB).
+  private static boolean worse(int wordA, int countA, int wordB, int countB) {
+    return countA < countB || (countA == countB && wordA > wordB);
+  }
+
+  private static void siftUp(int[] words, int[] counts, int i) {
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!worse(words[i], counts[i], words[parent], counts[parent])) {
+        return;
+      }
+      swap(words, counts, i, parent);
+      i = parent;
+    }
+  }
+
+  private static void siftDown(int[] words, int[] counts, int i, int size) {
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) {
+        return;
+      }
+      if (child + 1 < size
+          && worse(words[child + 1], counts[child + 1], words[child], counts[child])) {
+        child++;
+      }
+      if (!worse(words[child], counts[child], words[i], counts[i])) {
+        return;
+      }
+      swap(words, counts, i, child);
+      i = child;
+    }
+  }
+
+  private static void swap(int[] words, int[] counts, int a, int b) {
+    int w = words[a];
+    words[a] = words[b];
+    words[b] = w;
+    int c = counts[a];
+    counts[a] = counts[b];
+    counts[b] = c;
+  }
+}
@@ -0,0 +1,12 @@
+package wordsmith;
+
+/**
+ * Receives a call after every sampling iteration while Wordsmith estimates a topic model. Add one
+ * with Wordsmith.addTrainingListener.
+ *
+ * The call is made on the estimating thread between iterations, so sampling waits for it to
+ * return; keep it short. The progress object is only valid during the call.
+ */
+public interface TrainingListener {
+  void iterationFinished(TrainingProgress progress);
+}
@@ -0,0 +1,123 @@
+package wordsmith;
+
+/**
+ * A view of a topic model partway through estimation, handed to TrainingListeners.
+ *
+ * Iteration numbers and timings are plain fields. Anything that has to look at the model (top
+ * words, log-likelihood) is only computed when asked for, so a listener that just wants to
+ * count iterations adds no cost. Top words are selected with a bounded heap over the current
+ * word-topic counts rather than by sorting every topic's whole vocabulary.
+ *
+ * One instance is reused for the whole estimation and is only valid inside
+ * TrainingListener.iterationFinished; copy out anything you want to keep.
+ */
+public class TrainingProgress {
+  private final ObservableTopicModel model;
+  int iteration;
+  int numIterations;
+  long lastIterationMillis;
+  long elapsedMillis;
+  private double logLikelihood;
+  private int logLikelihoodIteration = -1;
+
+  // Word-topic counts grouped by topic, rebuilt at most once per iteration and reused after.
+  private int[][] topicWords;
+  private int[][] topicCounts;
+  private int[] topicLengths;
+  private int countsIteration = -1;
+  private int[] selectedWords;
+  private int[] selectedCounts;
+
+  TrainingProgress(ObservableTopicModel model) {
+    this.model = model;
+  }
+
+  /**
+   * @return the iteration that just finished, counting from 1
+   */
+  public int getIteration() {
+    return iteration;
+  }
+
+  /**
+   * @return the number of iterations estimation will run for
+   */
+  public int getNumIterations() {
+    return numIterations;
+  }
+
+  /**
+   * @return how long the last iteration's sampling took
+   */
+  public long getLastIterationMillis() {
+    return lastIterationMillis;
+  }
+
+  /**
+   * @return wall time since estimation started
+   */
+  public long getElapsedMillis() {
+    return elapsedMillis;
+  }
+
+  public int getNumTopics() {
+    return model.getNumTopics();
+  }
+
+  /**
+   * The topic's most frequent words at this point in estimation, best first. The first call in an
+   * iteration regroups the model's word-topic counts by topic (one pass over them); after that
+   * each call just runs a bounded heap over one topic's words.
+   */
+  public String[] getTopWordsForTopic(int topic, int numWords) {
+    int found = selectTopWords(topic, numWords);
+    String[] words = new String[found];
+    for (int i = 0; i < found; i++) {
+      words[i] = (String) model.getAlphabet().lookupObject(selectedWords[i]);
+    }
+    return words;
+  }
+
+  public WeightedWord[] getTopWeightedWordsForTopic(int topic, int numWords) {
+    int found = selectTopWords(topic, numWords);
+    WeightedWord[] words = new WeightedWord[found];
+    for (int i = 0; i < found; i++) {
+      words[i] = new WeightedWord((String) model.getAlphabet().lookupObject(selectedWords[i]),
+                                  selectedCounts[i]);
+    }
+    return words;
+  }
+
+  private int selectTopWords(int topic, int numWords) {
+    if (topic < 0 || topic >= getNumTopics()) {
+      throw new IllegalArgumentException("No topic " + topic + "; there are " + getNumTopics());
+    }
+    if (countsIteration != iteration) {
+      if (topicWords == null) {
+        topicWords = new int[getNumTopics()][];
+        topicCounts = new int[getNumTopics()][];
+        topicLengths = new int[getNumTopics()];
+      }
+      model.countsByTopic(topicWords, topicCounts, topicLengths);
+      countsIteration = iteration;
+    }
+    if (selectedWords == null || selectedWords.length < numWords) {
+      selectedWords = new int[numWords];
+      selectedCounts = new int[numWords];
+    }
+    return TopicWordCache.selectTop(topicWords[topic], topicCounts[topic], topicLengths[topic],
+                                    numWords, selectedWords, selectedCounts);
+  }
+
+  /**
+   * The model log-likelihood per token. This is expensive (a pass over every document and word
+   * type), so it is computed at most once per iteration and only if asked for.
+   */
+  public double getLogLikelihoodPerToken() {
+    if (logLikelihoodIteration != iteration) {
+      logLikelihood = model.logLikelihoodPerToken();
+      logLikelihoodIteration = iteration;
+    }
+    return logLikelihood;
+  }
+}
@@ -0,0 +1,194 @@
+package wordsmith;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import cc.mallet.types.Instance;
+
+/**
+ * Reads tweets one at a time from a Twitter XML feed, like the ones Pwitter saves and the Twitter
+ * API returns:
+ *
+ * <pre>
+ * &lt;twitter&gt;
+ *   &lt;tweet&gt;
+ *     &lt;created_at&gt;Tue Dec 11 13:43:44 +0000 2007&lt;/created_at&gt;
+ *     &lt;text&gt;...&lt;/text&gt;
+ *   &lt;/tweet&gt;
+ * </pre>
+ *
+ * Each &lt;tweet&gt; or &lt;status&gt; element is a tweet, and only its own &lt;text&gt; and
+ * &lt;created_at&gt; children are read (not, say, those of a nested &lt;user&gt;). Unlike
+ * Pwitter.loadTweets, which builds the whole feed in memory, this is a StAX pull parser holding
+ * one tweet at a time, so feeds of any size can be streamed into Wordsmith.addTweetsInXmlFile or
+ * WindowedTopicModel.addTweetsInXmlFile.
+ *
+ * <pre>
+ * TweetXmlReader reader = new TweetXmlReader(new File("data/johnmaeda.xml"));
+ * while (reader.next()) {
+ *   println(reader.getDate() + ": " + reader.getText());
+ * }
+ * reader.close();
+ * </pre>
+ */
+public class TweetXmlReader {
+  private final InputStream in;
+  private final XMLStreamReader xml;
+  private final SimpleDateFormat dateFormat =
+      new SimpleDateFormat("EEE MMM dd HH:mm:ss Z yyyy", Locale.US);
+
+  private String text;
+  private Date date;
+  private int count = 0;
+
+  public TweetXmlReader(File file) throws IOException {
+    this(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+  }
+
+  public TweetXmlReader(InputStream in) throws IOException {
+    this.in = in;
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    try {
+      xml = factory.createXMLStreamReader(in);
+    } catch (XMLStreamException e) {
+      in.close();
+      throw new IOException("Not a readable XML feed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Moves on to the next tweet.
+   *
+   * @return false at the end of the feed
+   */
+  public boolean next() throws IOException {
+    try {
+      while (xml.hasNext()) {
+        if (xml.next() == XMLStreamConstants.START_ELEMENT && isTweet(xml.getLocalName())) {
+          readTweet();
+          count++;
+          return true;
+        }
+      }
+      return false;
+    } catch (XMLStreamException e) {
+      throw new IOException("Bad XML after " + count + " tweets: " + e.getMessage());
+    }
+  }
+
+  private static boolean isTweet(String element) {
+    return element.equals("tweet") || element.equals("status");
+  }
+
+  private void readTweet() throws XMLStreamException {
+    text = null;
+    date = null;
+    int depth = 1;
+    while (depth > 0) {
+      int event = xml.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        String element = xml.getLocalName();
+        if (depth == 1 && element.equals("text")) {
+          text = xml.getElementText();
+        } else if (depth == 1 && element.equals("created_at")) {
+          date = parseDate(xml.getElementText().trim());
+        } else {
+          depth++;
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+    if (text == null) {
+      text = "";
+    }
+  }
+
+  private Date parseDate(String created) {
+    try {
+      return dateFormat.parse(created);
+    } catch (ParseException e) {
+      return null;
+    }
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * @return when the current tweet was posted, or null if the feed didn't say or couldn't be read
+   */
+  public Date getDate() {
+    return date;
+  }
+
+  /**
+   * @return how many tweets have been read so far
+   */
+  public int getCount() {
+    return count;
+  }
+
+  public void close() throws IOException {
+    try {
+      xml.close();
+    } catch (XMLStreamException e) {
+      // The stream below is what matters.
+    }
+    in.close();
+  }
+
+  /**
+   * The rest of the feed as Mallet instances, with the tweet text as data and its date (if any)
+   * as the name. Read errors surface as IllegalStateExceptions, since Iterator can't throw
+   * IOException.
+   */
+  Iterator<Instance> instances() {
+    return new Iterator<Instance>() {
+      private boolean ahead = false;
+      private boolean more;
+
+      public boolean hasNext() {
+        if (!ahead) {
+          try {
+            more = TweetXmlReader.this.next();
+          } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+          }
+          ahead = true;
+        }
+        return more;
+      }
+
+      public Instance next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        ahead = false;
+        return new Instance(text, null, date != null ? (Object) date : "tweet " + count, null);
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
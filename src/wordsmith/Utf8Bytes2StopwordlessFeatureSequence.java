@@ -0,0 +1,253 @@
+package wordsmith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import cc.mallet.pipe.Pipe;
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.Instance;
+
+/**
+ * Turns a File (or byte[] or ByteBuffer) of UTF-8 text straight into a FeatureSequence, doing in
+ * one pass over the bytes what Input2CharSequence, CharSequence2TokenSequence,
+ * TokenSequenceLowercase, TokenSequenceMarkStopwords and TokenSequence2StopwordlessFeatureSequence
+ * do with a String, a regex and a String per token.
+ *
+ * Mallet's default lexer takes runs of ASCII letters (\p{Alpha}+) as words. Every byte of a
+ * multi-byte UTF-8 character is 0x80 or above, so splitting the raw bytes on anything that isn't
+ * an ASCII letter gives exactly the same words without decoding anything. Words are lowercased in
+ * place and looked up by hashing the byte slice in a table of words seen before, which remembers
+ * each one's vocabulary id or that it is a stopword. Only a word the table hasn't seen becomes a
+ * String, to be checked against the stoplist and added to the alphabet.
+ *
+ * The stoplist is shared with the caller, and the table forgets its stopword decisions when the
+ * stoplist grows. Not thread-safe.
+ */
+public class Utf8Bytes2StopwordlessFeatureSequence extends Pipe {
+  private static final long serialVersionUID = 1L;
+
+  private static final int STOPWORD = -1;
+  // Files bigger than this are memory-mapped instead of read into the reusable buffer.
+  private static final int MAP_THRESHOLD = 1 << 20;
+
+  private final HashSet<String> stoplist;
+  private int stoplistSize;
+  private transient WordsmithMetrics metrics = null;
+
+  // Open-addressing table from word bytes to vocabulary id (or STOPWORD). Slots hold entry + 1.
+  private int[] slots = new int[1 << 12];
+  private int numEntries = 0;
+  private long[] hashes = new long[1 << 11];
+  private int[] offsets = new int[1 << 11];
+  private int[] lengths = new int[1 << 11];
+  private int[] ids = new int[1 << 11];
+  private byte[] arena = new byte[1 << 15];
+  private int arenaSize = 0;
+
+  private byte[] buffer = new byte[1 << 16];
+  private byte[] word = new byte[64];
+  private char[] chars = new char[64];
+
+  public Utf8Bytes2StopwordlessFeatureSequence(Alphabet dataDict, HashSet<String> stoplist) {
+    super(dataDict, null);
+    this.stoplist = stoplist;
+    this.stoplistSize = stoplist.size();
+  }
+
+  /**
+   * Counts kept and dropped tokens into the given metrics.
+   */
+  public Utf8Bytes2StopwordlessFeatureSequence setMetrics(WordsmithMetrics metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+
+  public Instance pipe(Instance carrier) {
+    Object data = carrier.getData();
+    ByteBuffer bytes;
+    try {
+      if (data instanceof File) {
+        bytes = read((File) data);
+      } else if (data instanceof byte[]) {
+        bytes = ByteBuffer.wrap((byte[]) data);
+      } else if (data instanceof ByteBuffer) {
+        bytes = ((ByteBuffer) data).duplicate();
+      } else {
+        throw new IllegalArgumentException("Can't read bytes from a " + data.getClass().getName());
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("IOException " + e, e);
+    }
+
+    carrier.setSource(data);
+    carrier.setData(tokenize(bytes));
+    return carrier;
+  }
+
+  private ByteBuffer read(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      if (size > MAP_THRESHOLD) {
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+      if (buffer.length < size) {
+        buffer = new byte[(int) size];
+      }
+      ByteBuffer into = ByteBuffer.wrap(buffer, 0, (int) size);
+      while (into.hasRemaining() && channel.read(into) >= 0) {
+        // Keep reading.
+      }
+      into.flip();
+      return into;
+    } finally {
+      raf.close();
+    }
+  }
+
+  FeatureSequence tokenize(ByteBuffer bytes) {
+    if (stoplist.size() != stoplistSize) {
+      forgetWords();
+    }
+    FeatureSequence features = new FeatureSequence(getDataAlphabet());
+    int kept = 0;
+    int dropped = 0;
+    int length = 0;
+    int end = bytes.limit();
+    for (int i = bytes.position(); i <= end; i++) {
+      int b = i < end ? bytes.get(i) : ' ';
+      if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')) {
+        if (length == word.length) {
+          byte[] longer = new byte[length * 2];
+          System.arraycopy(word, 0, longer, 0, length);
+          word = longer;
+        }
+        word[length++] = (byte) (b | 0x20);
+      } else if (length > 0) {
+        int id = lookup(word, length);
+        if (id == STOPWORD) {
+          dropped++;
+        } else {
+          features.add(id);
+          kept++;
+        }
+        length = 0;
+      }
+    }
+    if (metrics != null) {
+      metrics.recordTokens(kept, dropped);
+    }
+    return features;
+  }
+
+  // VOCABULARY TABLE ------------------------------------------------------------------------------
+
+  private int lookup(byte[] bytes, int length) {
+    long hash = hash(bytes, length);
+    int mask = slots.length - 1;
+    for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+      int entry = slots[slot] - 1;
+      if (entry < 0) {
+        return add(slot, hash, bytes, length);
+      }
+      if (hashes[entry] == hash && lengths[entry] == length && matches(entry, bytes, length)) {
+        return ids[entry];
+      }
+    }
+  }
+
+  private boolean matches(int entry, byte[] bytes, int length) {
+    int offset = offsets[entry];
+    for (int i = 0; i < length; i++) {
+      if (arena[offset + i] != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int add(int slot, long hash, byte[] bytes, int length) {
+    // The only place a word becomes a String. ASCII letters, so no decoding is needed.
+    if (chars.length < length) {
+      chars = new char[length];
+    }
+    for (int i = 0; i < length; i++) {
+      chars[i] = (char) bytes[i];
+    }
+    String text = new String(chars, 0, length);
+    int id = stoplist.contains(text) ? STOPWORD : getDataAlphabet().lookupIndex(text, true);
+
+    if (numEntries == ids.length) {
+      int capacity = numEntries * 2;
+      hashes = grow(hashes, capacity);
+      offsets = grow(offsets, capacity);
+      lengths = grow(lengths, capacity);
+      ids = grow(ids, capacity);
+    }
+    if (arenaSize + length > arena.length) {
+      byte[] bigger = new byte[Math.max(arena.length * 2, arenaSize + length)];
+      System.arraycopy(arena, 0, bigger, 0, arenaSize);
+      arena = bigger;
+    }
+    System.arraycopy(bytes, 0, arena, arenaSize, length);
+    int entry = numEntries++;
+    hashes[entry] = hash;
+    offsets[entry] = arenaSize;
+    lengths[entry] = length;
+    ids[entry] = id;
+    arenaSize += length;
+    slots[slot] = entry + 1;
+
+    if (numEntries * 2 > slots.length) {
+      rehash(slots.length * 2);
+    }
+    return id;
+  }
+
+  private void rehash(int capacity) {
+    slots = new int[capacity];
+    int mask = capacity - 1;
+    for (int entry = 0; entry < numEntries; entry++) {
+      int slot = (int) hashes[entry] & mask;
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = entry + 1;
+    }
+  }
+
+  private void forgetWords() {
+    Arrays.fill(slots, 0);
+    numEntries = 0;
+    arenaSize = 0;
+    stoplistSize = stoplist.size();
+  }
+
+  // FNV-1a, then a final mix so the low bits used for the slot depend on every byte.
+  private static long hash(byte[] bytes, int length) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < length; i++) {
+      h = (h ^ bytes[i]) * 0x100000001b3L;
+    }
+    return h ^ (h >>> 29);
+  }
+
+  private static long[] grow(long[] array, int capacity) {
+    long[] bigger = new long[capacity];
+    System.arraycopy(array, 0, bigger, 0, array.length);
+    return bigger;
+  }
+
+  private static int[] grow(int[] array, int capacity) {
+    int[] bigger = new int[capacity];
+    System.arraycopy(array, 0, bigger, 0, array.length);
+    return bigger;
+  }
+}
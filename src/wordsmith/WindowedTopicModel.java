@@ -0,0 +1,383 @@
+package wordsmith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import cc.mallet.pipe.Pipe;
+import cc.mallet.types.Instance;
+import cc.mallet.types.Token;
+import cc.mallet.types.TokenSequence;
+
+/**
+ * A topic model over a sliding time window of a document stream, such as "the last 24h" of
+ * tweets. Make one with Wordsmith.createWindowedModel, which also fixes its tokenization (HTML and
+ * stopword settings) at that moment.
+ *
+ * Documents are added with their timestamps. As the newest timestamp moves forward, documents
+ * that fall out of the window are taken back out of the counts straight away, and words nobody in
+ * the window uses any more are dropped from the vocabulary, so memory follows the size of the
+ * window rather than the length of the stream. refresh() then runs collapsed Gibbs sampling over
+ * just the documents added since the last refresh, plus as many older documents picked at random
+ * to let the rest of the window adjust, so its cost is proportional to what arrived, not to the
+ * window.
+ *
+ * This is its own small sampler rather than a Mallet ParallelTopicModel, which can't remove
+ * documents once added. It samples on the calling thread. All methods are synchronized, so one
+ * thread can feed the stream while another (say, Processing's draw loop) reads topics.
+ */
+public class WindowedTopicModel {
+  private final Pipe tokenizer;
+  private final int numTopics;
+  private final double alpha;
+  private final double beta;
+  private final long windowMillis;
+  private final Random random;
+  private int refreshSweeps = 20;
+
+  // Word ids are recycled once a word's last occurrence leaves the window.
+  private final HashMap<String, Integer> wordIds = new HashMap<String, Integer>();
+  private String[] words = new String[1024];
+  private int[] typeTotals = new int[1024];
+  private int[][] typeTopicCounts = new int[1024][];
+  private int[] freeIds = new int[16];
+  private int numFreeIds = 0;
+  private int numIds = 0;
+
+  private final int[] tokensPerTopic;
+  private long totalTokens = 0;
+
+  private final PriorityQueue<Document> byTime = new PriorityQueue<Document>();
+  private final ArrayList<Document> live = new ArrayList<Document>();
+  private ArrayList<Document> added = new ArrayList<Document>();
+  private long latestTime = Long.MIN_VALUE;
+
+  // Scratch space for sampling.
+  private final int[] docTopicCounts;
+  private final double[] topicWeights;
+
+  private static class Document implements Comparable<Document> {
+    final long time;
+    final int[] words;
+    final int[] topics;
+    int index = -1; // Position in live, or -1 once expired.
+
+    Document(long time, int[] words) {
+      this.time = time;
+      this.words = words;
+      this.topics = new int[words.length];
+    }
+
+    public int compareTo(Document other) {
+      return time < other.time ? -1 : (time == other.time ? 0 : 1);
+    }
+  }
+
+  WindowedTopicModel(Pipe tokenizer, int numTopics, double alphaSum, double beta,
+                     long windowMillis, long seed) {
+    if (windowMillis <= 0) {
+      throw new IllegalArgumentException("The window must be longer than zero.");
+    }
+    this.tokenizer = tokenizer;
+    this.numTopics = numTopics;
+    this.alpha = alphaSum / numTopics;
+    this.beta = beta;
+    this.windowMillis = windowMillis;
+    this.random = new Random(seed);
+    this.tokensPerTopic = new int[numTopics];
+    this.docTopicCounts = new int[numTopics];
+    this.topicWeights = new double[numTopics];
+  }
+
+  /**
+   * Sets how many Gibbs sweeps refresh() gives each newly added document. The default is 20.
+   */
+  public synchronized void setRefreshSweeps(int sweeps) {
+    refreshSweeps = Math.max(1, sweeps);
+  }
+
+  // ADD DOCUMENTS ---------------------------------------------------------------------------------
+
+  public boolean addDocument(String text, Date time) {
+    return addDocument(text, time.getTime());
+  }
+
+  /**
+   * Adds a document to the window and moves the window forward to its timestamp if that is the
+   * newest seen, expiring anything that falls out. The document's words count towards the topics
+   * right away but are only sampled properly at the next refresh().
+   *
+   * @return false if the document is already too old for the window, and was ignored
+   */
+  public synchronized boolean addDocument(String text, long timeMillis) {
+    if (latestTime != Long.MIN_VALUE && timeMillis <= latestTime - windowMillis) {
+      return false;
+    }
+
+    TokenSequence tokens =
+        (TokenSequence) tokenizer.instanceFrom(new Instance(text, null, null, null)).getData();
+    int[] ids = new int[tokens.size()];
+    int length = 0;
+    for (int i = 0; i < tokens.size(); i++) {
+      Token token = tokens.get(i);
+      if (!DocumentTopicCursor.isMarkedStopword(token)) {
+        ids[length++] = lookupOrAddWord(token.getText());
+      }
+    }
+
+    Document doc =
+        new Document(timeMillis, length == ids.length ? ids : Arrays.copyOf(ids, length));
+    for (int i = 0; i < doc.words.length; i++) {
+      doc.topics[i] = random.nextInt(numTopics);
+      count(doc.words[i], doc.topics[i], 1);
+    }
+    doc.index = live.size();
+    live.add(doc);
+    byTime.add(doc);
+    added.add(doc);
+
+    advanceTo(timeMillis);
+    return true;
+  }
+
+  /**
+   * Adds every tweet in a Twitter XML feed, streamed one at a time, with its posting time.
+   * Tweets without a readable date are skipped. Feeds should be oldest first, since tweets that
+   * are already out of the window when they arrive are ignored.
+   *
+   * @return the number of tweets added
+   */
+  public int addTweetsInXmlFile(String filepath) throws IOException {
+    TweetXmlReader reader = new TweetXmlReader(new File(filepath));
+    int added = 0;
+    try {
+      while (reader.next()) {
+        if (reader.getDate() != null && addDocument(reader.getText(), reader.getDate())) {
+          added++;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return added;
+  }
+
+  /**
+   * Moves the end of the window forward to the given time, even if no documents have arrived,
+   * and takes out everything that falls out of the window.
+   */
+  public synchronized void advanceTo(long timeMillis) {
+    if (timeMillis > latestTime) {
+      latestTime = timeMillis;
+    }
+    while (!byTime.isEmpty() && byTime.peek().time <= latestTime - windowMillis) {
+      remove(byTime.poll());
+    }
+  }
+
+  private void remove(Document doc) {
+    for (int i = 0; i < doc.words.length; i++) {
+      count(doc.words[i], doc.topics[i], -1);
+    }
+    Document last = live.remove(live.size() - 1);
+    if (last != doc) {
+      live.set(doc.index, last);
+      last.index = doc.index;
+    }
+    doc.index = -1;
+  }
+
+  private int lookupOrAddWord(String word) {
+    Integer id = wordIds.get(word);
+    if (id != null) {
+      return id;
+    }
+    int newId;
+    if (numFreeIds > 0) {
+      newId = freeIds[--numFreeIds];
+    } else {
+      if (numIds == words.length) {
+        int capacity = numIds * 2;
+        words = Arrays.copyOf(words, capacity);
+        typeTotals = Arrays.copyOf(typeTotals, capacity);
+        typeTopicCounts = Arrays.copyOf(typeTopicCounts, capacity);
+      }
+      newId = numIds++;
+      typeTopicCounts[newId] = new int[numTopics];
+    }
+    words[newId] = word;
+    wordIds.put(word, newId);
+    return newId;
+  }
+
+  private void count(int word, int topic, int delta) {
+    typeTopicCounts[word][topic] += delta;
+    tokensPerTopic[topic] += delta;
+    typeTotals[word] += delta;
+    totalTokens += delta;
+    if (typeTotals[word] == 0) {
+      // Its topic counts are all back to zero too, ready for reuse.
+      wordIds.remove(words[word]);
+      words[word] = null;
+      if (numFreeIds == freeIds.length) {
+        freeIds = Arrays.copyOf(freeIds, numFreeIds * 2);
+      }
+      freeIds[numFreeIds++] = word;
+    }
+  }
+
+  // SAMPLING --------------------------------------------------------------------------------------
+
+  /**
+   * Samples the documents added since the last refresh, plus the same number of older documents
+   * from the window chosen at random.
+   *
+   * @return the number of documents that were new since the last refresh
+   */
+  public synchronized int refresh() {
+    ArrayList<Document> fresh = added;
+    added = new ArrayList<Document>();
+    int numFresh = 0;
+    for (int sweep = 0; sweep < refreshSweeps; sweep++) {
+      for (int i = 0; i < fresh.size(); i++) {
+        Document doc = fresh.get(i);
+        if (doc.index >= 0) {
+          sample(doc);
+          if (sweep == 0) {
+            numFresh++;
+          }
+        }
+      }
+    }
+    for (int i = 0; i < numFresh && !live.isEmpty(); i++) {
+      sample(live.get(random.nextInt(live.size())));
+    }
+    return numFresh;
+  }
+
+  private void sample(Document doc) {
+    Arrays.fill(docTopicCounts, 0);
+    for (int i = 0; i < doc.topics.length; i++) {
+      docTopicCounts[doc.topics[i]]++;
+    }
+    double betaSum = beta * wordIds.size();
+
+    for (int i = 0; i < doc.words.length; i++) {
+      int[] wordCounts = typeTopicCounts[doc.words[i]];
+      int topic = doc.topics[i];
+      docTopicCounts[topic]--;
+      wordCounts[topic]--;
+      tokensPerTopic[topic]--;
+
+      double sum = 0;
+      for (int t = 0; t < numTopics; t++) {
+        topicWeights[t] = (docTopicCounts[t] + alpha) * (wordCounts[t] + beta) /
+                          (tokensPerTopic[t] + betaSum);
+        sum += topicWeights[t];
+      }
+      double sample = random.nextDouble() * sum;
+      topic = 0;
+      while ((sample -= topicWeights[topic]) > 0 && topic < numTopics - 1) {
+        topic++;
+      }
+
+      doc.topics[i] = topic;
+      docTopicCounts[topic]++;
+      wordCounts[topic]++;
+      tokensPerTopic[topic]++;
+    }
+  }
+
+  // USE RESULTS -----------------------------------------------------------------------------------
+
+  public int getNumTopics() {
+    return numTopics;
+  }
+
+  /**
+   * @return the number of documents in the window
+   */
+  public synchronized int getNumDocuments() {
+    return live.size();
+  }
+
+  /**
+   * @return the number of distinct words in the window
+   */
+  public synchronized int getNumWords() {
+    return wordIds.size();
+  }
+
+  public synchronized long getNumTokens() {
+    return totalTokens;
+  }
+
+  /**
+   * @return the newest timestamp seen; the window covers the windowMillis before it
+   */
+  public synchronized long getLatestTime() {
+    return latestTime;
+  }
+
+  public long getWindowMillis() {
+    return windowMillis;
+  }
+
+  /**
+   * @return the fraction of the window's words assigned to the topic
+   */
+  public synchronized double getTopicShare(int topic) {
+    return totalTokens == 0 ? 0 : tokensPerTopic[topic] / (double) totalTokens;
+  }
+
+  public synchronized String[] getTopWordsForTopic(int topic, int numWords) {
+    int found = selectTopWords(topic, numWords);
+    String[] top = new String[found];
+    for (int i = 0; i < found; i++) {
+      top[i] = words[selectedWords[i]];
+    }
+    return top;
+  }
+
+  public synchronized WeightedWord[] getTopWeightedWordsForTopic(int topic, int numWords) {
+    int found = selectTopWords(topic, numWords);
+    WeightedWord[] top = new WeightedWord[found];
+    for (int i = 0; i < found; i++) {
+      top[i] = new WeightedWord(words[selectedWords[i]], selectedCounts[i]);
+    }
+    return top;
+  }
+
+  private int[] selectedWords = new int[0];
+  private int[] selectedCounts = new int[0];
+  private int[] scanWords = new int[0];
+  private int[] scanCounts = new int[0];
+
+  private int selectTopWords(int topic, int numWords) {
+    if (topic < 0 || topic >= numTopics) {
+      throw new IllegalArgumentException("No topic " + topic + "; there are " + numTopics);
+    }
+    if (scanWords.length < numIds) {
+      scanWords = new int[words.length];
+      scanCounts = new int[words.length];
+    }
+    int length = 0;
+    for (int word = 0; word < numIds; word++) {
+      if (words[word] != null && typeTopicCounts[word][topic] > 0) {
+        scanWords[length] = word;
+        scanCounts[length++] = typeTopicCounts[word][topic];
+      }
+    }
+    if (selectedWords.length < numWords) {
+      selectedWords = new int[numWords];
+      selectedCounts = new int[numWords];
+    }
+    return TopicWordCache.selectTop(scanWords, scanCounts, length, numWords,
+                                    selectedWords, selectedCounts);
+  }
+}
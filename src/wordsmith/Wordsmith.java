@@ -28,16 +28,20 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
-import processing.core.PApplet;
-import pwitter.Pweet;
-import pwitter.Pwitter;
 import cc.mallet.pipe.CharSequence2TokenSequence;
-import cc.mallet.pipe.CharSequenceRemoveHTML;
 import cc.mallet.pipe.Input2CharSequence;
 import cc.mallet.pipe.Noop;
 import cc.mallet.pipe.Pipe;
@@ -45,19 +49,14 @@ import cc.mallet.pipe.SaveDataInSource;
 import cc.mallet.pipe.SerialPipes;
 import cc.mallet.pipe.TokenSequenceLowercase;
 import cc.mallet.pipe.TokenSequenceRemoveStopwords;
-import cc.mallet.pipe.iterator.FileIterator;
 import cc.mallet.topics.ParallelTopicModel;
-import cc.mallet.topics.TopicAssignment;
 import cc.mallet.types.Alphabet;
 import cc.mallet.types.FeatureSelection;
 import cc.mallet.types.FeatureSequence;
 import cc.mallet.types.FeatureVector;
-import cc.mallet.types.IDSorter;
 import cc.mallet.types.InfoGain;
 import cc.mallet.types.Instance;
 import cc.mallet.types.InstanceList;
-import cc.mallet.types.LabelSequence;
-import cc.mallet.types.Token;
 import cc.mallet.types.TokenSequence;
 
 /**
@@ -88,26 +87,66 @@ public class Wordsmith {
   private HashSet<String> stopwordsList = new HashSet<String>();
   private boolean addedEnglishStopwords = false;
   private boolean filterHtml = false;
+  private boolean tweetTokens = false;
+  private boolean stemWords = false;
+  private ConcurrentHashMap<String, String> stems = null;
   private boolean pruneUsingInfoGain = false;
   private int pruneToTopN = 5000;
   private boolean pruneBottomN = true;
+  private boolean pruneBottomNChosen = false; // pruneWordsOccurringLessThanThreshold was called
   private int pruneBottomThreshold = 3;
+  private PhraseDetector phraseDetector = null;
+  private HashedVocabulary hashedVocabulary = null;
+  private CountMinSketch rareWordCounts = null;
+  private int rareWordThreshold;
+  private TokenSequenceMarkRareWords rareWordMarker = null;
+  private NearDuplicateFilter duplicateFilter = null;
+  private boolean collapseDuplicates = false;
  
-  private Object[][] topWordsCache = null;
-  private TreeSet<IDSorter>[] topicSortedWordsCache = null;
+  // Results of the last estimation or load. Replaced as a whole, never modified, so query threads
+  // can read it while the next model trains.
+  private volatile TopicModelSnapshot snapshot = null;
+  private int snapshotVersion = 0;
+
+  private int similarityMeasure = TopicSimilarityIndex.HELLINGER;
+  private int approximateSimilarityThreshold = 200000;
+  private TopicSimilarityIndex similarityIndex = null;
+  private TopicModelSnapshot similarityIndexSnapshot = null;
 
   private InstanceList ilist = null;
+  // Set once the documents have been pruned for a model; no more can be added after that.
+  private boolean documentsPrepared = false;
+
+  private final WordsmithMetrics metrics = new WordsmithMetrics();
+  private final List<TrainingListener> trainingListeners =
+      new CopyOnWriteArrayList<TrainingListener>();
   
   // CREATE MODEL ----------------------------------------------------------------------------------
   
 
   public void loadExistingModel(String file) {
     try {
-      lda = ParallelTopicModel.read(new File(file));
+      restoreModel(file);
     } catch (Exception e) {
       System.err.println("Unable to restore saved topic model " + file + ": " + e);
     }
-    this.createModel = false;
+  }
+  
+  private TopicModelSnapshot restoreModel(String file) throws Exception {
+    try {
+      lda = ParallelTopicModel.read(new File(file));
+      if (lda instanceof ObservableTopicModel) {
+        ((ObservableTopicModel) lda).attach(metrics, trainingListeners);
+      } else {
+        System.err.println("This model was saved by plain Mallet, so metrics, training " +
+                           "listeners and estimation handles won't see it being estimated.");
+      }
+      k = lda.getNumTopics();
+      publishSnapshot();
+      return snapshot;
+    } finally {
+      this.createModel = false;
+    }
   }
   
   
@@ -115,13 +154,34 @@ public class Wordsmith {
     this.createModel = true;
     this.k = numberOfTopics;
     this.numIterations = 250;
-    lda = new ParallelTopicModel(numberOfTopics, alpha, beta);
+    lda = new ObservableTopicModel(numberOfTopics, alpha, beta, metrics, trainingListeners);
   }
 
   public void createNewModel(int numberOfTopics) {
     createNewModel(numberOfTopics, 50.0 / numberOfTopics, 0.03);
   }
   
+  /**
+   * Makes a topic model over a sliding time window of documents, such as "24h" of tweets, that
+   * forgets old documents as new ones arrive. It tokenizes the way this Wordsmith is set up to
+   * at the time of the call, so set up stopwords and HTML filtering first. Pruning settings
+   * don't apply, since the vocabulary is whatever is in the window.
+   */
+  public WindowedTopicModel createWindowedModel(int numberOfTopics, double alpha, double beta,
+                                                String window) {
+    long windowMillis = HumanTime.eval(window).getDelta();
+    if (windowMillis <= 0) {
+      throw new IllegalArgumentException("Couldn't read a window length from \"" + window +
+                                         "\"; try something like \"24h\".");
+    }
+    return new WindowedTopicModel(makeTokenizingPipe(), numberOfTopics, alpha, beta, windowMillis,
+                                  System.currentTimeMillis());
+  }
+  
+  public WindowedTopicModel createWindowedModel(int numberOfTopics, String window) {
+    return createWindowedModel(numberOfTopics, 50.0 / numberOfTopics, 0.03, window);
+  }
+  
   // CONFIGURE MODEL -------------------------------------------------------------------------------
 
   public void setIntermediateResultsFrequency(int numberOfIterations) {
@@ -163,9 +223,12 @@ public class Wordsmith {
   }
   
   public void useMulticore(int numCores) {
-    if (numCores < 0 || numCores > 8) {
+    if (numCores < 1 || numCores > 8) {
       System.err.println("You must use between 1 & 8 cores. If your machine is not multi-core, " +
           "anything other than 1 may slow it down a bit.");
+      if (numCores < 1) {
+        return;
+      }
     }
     numThreads = numCores;
   }
@@ -182,12 +245,36 @@ public class Wordsmith {
       return;
     }
     addedEnglishStopwords = true;
+    // Added here rather than by each pipe, so pipes tokenizing on other threads only read it.
+    stopwordsList.addAll(Arrays.asList(Stopwords.augmentedEnglishStopWords));
+    stopwordsList.addAll(Arrays.asList(Stopwords.malletEnglishStopwords));
   }
   
   public void removeHtmlFromDocuments() {
     filterHtml = true;
   }
   
+  /**
+   * Splits documents into words the way tweets need: contractions stay whole, URLs and
+   * @mentions are dropped, hashtags become plain words and "soooo" becomes "soo". See
+   * CharSequence2TweetTokenSequence.
+   */
+  public void tokenizeDocumentsAsTweets() {
+    tweetTokens = true;
+  }
+  
+  /**
+   * Reduces words to their stems, so "run", "runs" and "running" are one word in the topics.
+   * Topics then list stems ("happi"); the document cursor and topic word assignments still show
+   * the words as written. English only. See TokenSequenceStem.
+   */
+  public void stemWordsInDocuments() {
+    stemWords = true;
+    if (stems == null) {
+      stems = new ConcurrentHashMap<String, String>();
+    }
+  }
+  
   public void pruneToTopWordsUsingInformationGain(int numDesiredWords) {
     this.pruneUsingInfoGain = true;
     this.pruneToTopN = numDesiredWords;
@@ -195,35 +282,212 @@ public class Wordsmith {
   
   public void pruneWordsOccurringLessThanThreshold(int threshold) {
     this.pruneBottomN = true;
+    this.pruneBottomNChosen = true;
     this.pruneBottomThreshold = threshold;
   }
+  
+  /**
+   * Like pruneWordsOccurringLessThanThreshold, but words are counted approximately as documents
+   * are added, and rare ones are dropped straight away rather than in a second pass, so they
+   * never take up memory. Occurrences of a word are held back until it has been seen threshold
+   * times, then put back; those still held when topics are extracted stay dropped. Replaces the
+   * second pass, so a pruneWordsOccurringLessThanThreshold before it is dropped; call that
+   * afterwards to have both. Must be called before adding documents; see
+   * TokenSequenceMarkRareWords.
+   */
+  public void pruneRareWordsWhileAddingDocuments(int threshold) {
+    pruneRareWordsWhileAddingDocuments(threshold, 1 << 20);
+  }
+  
+  /**
+   * @param sketchWidth counters in each of the 4 rows of the count-min sketch (16MB at the
+   *        default of 2^20); use more for corpora of hundreds of millions of words
+   */
+  public void pruneRareWordsWhileAddingDocuments(int threshold, int sketchWidth) {
+    if (ilist != null) {
+      System.err.println("Sorry, words can only be pruned while adding if it's set up before " +
+                         "adding documents.");
+      return;
+    }
+    if (pruneBottomN && pruneBottomNChosen) {
+      System.err.println("Pruning rare words while adding replaces " +
+                         "pruneWordsOccurringLessThanThreshold(" + pruneBottomThreshold + "); " +
+                         "call that again afterwards to prune in both.");
+    }
+    rareWordCounts = new CountMinSketch(sketchWidth, 4);
+    rareWordThreshold = threshold;
+    pruneBottomN = false;
+  }
+  
+  /**
+   * Before extracting topics, merges pairs of words that appear together at least minCount times
+   * and are strongly associated (NPMI of at least threshold, from -1 to 1; try 0.5) into phrases
+   * like "new_york", up to three words long. See PhraseDetector.
+   */
+  public void findPhrasesInDocuments(int minCount, double threshold) {
+    findPhrasesInDocuments(new PhraseDetector(minCount, threshold));
+  }
+  
+  public void findPhrasesInDocuments(PhraseDetector detector) {
+    phraseDetector = detector;
+  }
+  
+  /**
+   * Hashes words into a fixed number of buckets instead of giving every distinct word its own
+   * entry, so the vocabulary, and the model, stop growing with the stream. Topics show each
+   * bucket's most frequent word. Must be called before adding documents. See HashedVocabulary.
+   */
+  public void hashWordsIntoBuckets(int numBuckets) {
+    hashWordsIntoBuckets(new HashedVocabulary(numBuckets));
+  }
+  
+  public void hashWordsIntoBuckets(HashedVocabulary vocabulary) {
+    if (ilist != null) {
+      System.err.println("Sorry, the vocabulary can't be changed once documents have been added.");
+      return;
+    }
+    hashedVocabulary = vocabulary;
+  }
+  
+  /**
+   * Drops documents as they are added if their words are at least this similar (0 to 1, e.g.
+   * 0.8) to a recently added document's, such as retweets. Compares against the last 100000
+   * documents; see NearDuplicateFilter.
+   */
+  public void removeNearDuplicateDocuments(double similarity) {
+    removeNearDuplicateDocuments(similarity, 100000);
+  }
+  
+  public void removeNearDuplicateDocuments(double similarity, int maxRemembered) {
+    duplicateFilter = new NearDuplicateFilter(similarity, maxRemembered);
+    collapseDuplicates = false;
+  }
+  
+  /**
+   * Like removeNearDuplicateDocuments, but each duplicate adds 1 to the weight of the document it
+   * duplicates (see getDocumentWeight) instead of vanishing without a trace. Mallet's LDA itself
+   * does not use instance weights.
+   */
+  public void collapseNearDuplicateDocuments(double similarity) {
+    removeNearDuplicateDocuments(similarity);
+    collapseDuplicates = true;
+  }
 
   // INFERENCE -------------------------------------------------------------------------------------
   
   public void extractTopicsFromDocuments() {
+    extractTopicsFromDocuments((EstimationHandle) null);
+  }
+  
+  /**
+   * Like extractTopicsFromDocuments(), but stops between iterations once the time budget (e.g.
+   * "2h30m") is about to run out. Whatever it got through is published and saved as usual.
+   */
+  public void extractTopicsFromDocuments(String timeBudget) {
+    EstimationHandle handle;
+    try {
+      handle = new EstimationHandle(timeBudget);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      return;
+    }
+    extractTopicsFromDocuments(handle);
+  }
+  
+  /**
+   * Like extractTopicsFromDocuments(), but the handle can set a time budget and be cancelled from
+   * another thread. Afterwards it reports how many iterations were run.
+   */
+  public void extractTopicsFromDocuments(EstimationHandle handle) {
     if (!canStartLda()) {
       return;
     }
-    
-    doPrune();
-    configureLda();
-
-    System.out.println("Starting LDA Inference... this might take a while (read: hours) depending " +
-        "on the number of topics, number of documents, and document length.");
     try {
-      lda.addInstances(ilist);
-      lda.estimate();
+      estimateTopics(handle);
     } catch (IOException e) {
       e.printStackTrace();
       System.err.println("LDA estimation failed: " + e.getMessage());
+      saveState();
+    }
+  }
+  
+  /**
+   * The body of extractTopicsFromDocuments, minus the precondition checks. Estimation failures
+   * are thrown rather than printed.
+   */
+  private TopicModelSnapshot estimateTopics(EstimationHandle handle) throws IOException {
+    if (handle != null && !(lda instanceof ObservableTopicModel)) {
+      System.err.println("This model was saved by plain Mallet and can't be stopped early; " +
+                         "it will run all " + numIterations + " iterations.");
+    } else if (handle != null) {
+      // The budget covers pruning and setting up the sampler too.
+      handle.started(numIterations);
+    }
+    
+    try {
+      doPrune();
+      configureLda();
+
+      System.out.println("Starting LDA Inference... this might take a while (read: hours) " +
+          "depending on the number of topics, number of documents, and document length.");
+      if (lda instanceof ObservableTopicModel) {
+        ((ObservableTopicModel) lda).setEstimationHandle(handle);
+      }
+      lda.addInstances(ilist);
+      lda.estimate();
+      publishSnapshot();
+    } finally {
+      if (lda instanceof ObservableTopicModel) {
+        ((ObservableTopicModel) lda).setEstimationHandle(null);
+      }
+      if (handle != null && handle.isRunning()) {
+        // Something failed before sampling could finish it.
+        handle.finished(handle.getIterationsCompleted());
+      }
+    }
+    if (handle != null && handle.isStoppedEarly()) {
+      System.out.println(handle);
     }
 
     saveState();
+    return snapshot;
   }
   
   private void doPrune() {
+    if (rareWordMarker != null) {
+      // The documents are about to be rewritten; held-back words can't be put back into them.
+      rareWordMarker.forgetPending();
+    }
+
+    if (hashedVocabulary != null &&
+        ilist.getDataAlphabet() == hashedVocabulary.getBucketAlphabet()) {
+      // Swap the bucket numbers for their most frequent words, for display.
+      Alphabet labels = hashedVocabulary.labels();
+      Noop labelledPipe = new Noop(labels, ilist.getTargetAlphabet());
+      InstanceList labelled = new InstanceList(labelledPipe);
+      for (int ii = 0; ii < ilist.size(); ii++) {
+        Instance instance = ilist.get(ii);
+        FeatureSequence fs = (FeatureSequence) instance.getData();
+        labelled.add(labelledPipe.instanceFrom(
+                         new Instance(new FeatureSequence(labels, fs.getFeatures(), fs.getLength()),
+                                      instance.getTarget(), instance.getName(),
+                                      instance.getSource())),
+                     ilist.getInstanceWeight(ii));
+      }
+      ilist = labelled;
+    }
+
+    if (phraseDetector != null && !documentsPrepared) {
+      // The documents are only rewritten once; doing it again would find phrases of phrases.
+      long phraseStart = System.currentTimeMillis();
+      int found = phraseDetector.apply(ilist);
+      metrics.recordPhrases(found, System.currentTimeMillis() - phraseStart);
+    }
+    documentsPrepared = true;
+
+    long startTime = System.currentTimeMillis();
+    int vocabularyBefore = -1;
     if (pruneBottomN) {
-      long startTime = System.currentTimeMillis();
 
       // Version for feature sequences
 
@@ -256,23 +520,20 @@ public class Wordsmith {
 
         newInstanceList.add(newPipe.instanceFrom(new Instance(fs, instance.getTarget(),
                                                               instance.getName(),
-                                                              instance.getSource())));
+                                                              instance.getSource())),
+                            ilist.getInstanceWeight(0));
         ilist.remove(0);
       }
 
       System.out.println("Reduced vocab from " + oldAlphabet.size() + 
                          " words to " + newAlphabet.size());
+      vocabularyBefore = oldAlphabet.size();
 
       // Make the new list the official list.
       ilist = newInstanceList;
-
-      System.out.println("Finishing pruning uncommon words! It took " + 
-                         HumanTime.exactly(System.currentTimeMillis() - startTime));
     }
 
     if (pruneUsingInfoGain) {
-      long startTime = System.currentTimeMillis();
-
       Alphabet alpha2 = new Alphabet ();
       Noop pipe2 = new Noop (alpha2, ilist.getTargetAlphabet());
       InstanceList instances2 = new InstanceList (pipe2);
@@ -288,9 +549,11 @@ public class Wordsmith {
                  ilist.getInstanceWeight(ii));
       }
       ilist = instances2;
-      
-      System.out.println("Finishing pruning vocabulary to top " + pruneToTopN + "! It took " + 
-                         HumanTime.exactly(System.currentTimeMillis() - startTime));
+    }
+
+    if (pruneBottomN || pruneUsingInfoGain) {
+      metrics.recordPrune(vocabularyBefore, ilist.getDataAlphabet().size(),
+                          System.currentTimeMillis() - startTime);
     }
   }
   
@@ -323,21 +586,31 @@ public class Wordsmith {
   }
   
   private boolean canStartLda() {
+    String problem = whyLdaCantStart();
+    if (problem != null) {
+      System.err.println(problem);
+      return false;
+    }
+    return true;
+  }
+  
+  /**
+   * @return what has to be done before inference can start, or null if it can
+   */
+  private String whyLdaCantStart() {
     if (lda == null) {
-      System.err.println("You must first call either createNewModel or loadExistingModel. " +
+      return "You must first call either createNewModel or loadExistingModel. " +
           "You probably want to call createNewModel, as runAlgorithm does the inference process " +
-          "over previously entered documents.");
-      return false;
+          "over previously entered documents.";
     }
     
     if (!setInstances) {
-      System.err.println("You have not added any documents. You can use:\n" +
-                         "addDocumentInString(\"this is my short document\") or\n" +
-                         "addDocumentInFile(\"path/to/my/favorite/file\") or\n" + 
-                         "addDocumentsInDirectory(\"/path/to/a/directory/of/files\")");
-      return false;
+      return "You have not added any documents. You can use:\n" +
+             "addDocumentInString(\"this is my short document\") or\n" +
+             "addDocumentInFile(\"path/to/my/favorite/file\") or\n" + 
+             "addDocumentsInDirectory(\"/path/to/a/directory/of/files\")";
     }
-    return true;
+    return null;
   }
   
   private void saveState() {
@@ -345,9 +618,11 @@ public class Wordsmith {
       System.out.println("Saving model to disk.");
       assert (lda != null);
       try {
+        long startTime = System.currentTimeMillis();
         ObjectOutputStream oos = new ObjectOutputStream (new FileOutputStream (outputModelFile));
         oos.writeObject (lda);
         oos.close();
+        metrics.recordCheckpoint(System.currentTimeMillis() - startTime);
 
       } catch (Exception e) {
         e.printStackTrace();
@@ -360,7 +635,9 @@ public class Wordsmith {
       System.out.println("Saving model to disk.");
       assert (lda != null);
       try {
+        long startTime = System.currentTimeMillis();
         lda.printState(new File(outputStateFile));
+        metrics.recordCheckpoint(System.currentTimeMillis() - startTime);
       } catch (Exception e) {
         e.printStackTrace();
         throw new IllegalArgumentException (
@@ -380,70 +657,176 @@ public class Wordsmith {
   }
 
   public String[] getTopWordsForTopic(int topic, int numWords) {
-    if (topic > k) {
-      System.err.println("You must enter a topic number from 0 to " + k);
-      return null;
-    }
-    
-    if (lda == null) {
-      System.err.println("You must first create the model and extract the topics.");
+    TopicModelSnapshot results = getCheckedSnapshot(topic, numWords);
+    if (results == null) {
       return null;
     }
 
-    if (topWordsCache == null) {
-      topWordsCache = lda.getTopWords(numWords);
-    } else if (topWordsCache[topic].length < numWords) {
-      System.err.print("NOTICE: Requested " + numWords + " top words, cached version had only " +
-                       topWordsCache[topic].length + " words. Re-acquiring from topic model.");
-      topWordsCache = lda.getTopWords(numWords);
-    }
-
-    Object[] fromStrings = topWordsCache[topic];
-    if (fromStrings.length < numWords) {
+    int available = results.getNumWordsInTopic(topic);
+    if (available < numWords) {
       System.err.println("WARNING: Requested " + numWords + " top words, but only " + 
-                       fromStrings.length + " are available. Returning the smaller array.");
-      numWords = fromStrings.length;
+                       available + " are available. Returning the smaller array.");
     }
-    
-    String[] toStrings = new String[numWords];
-    System.arraycopy(fromStrings, 0, toStrings, 0, numWords);
-    
-    return toStrings;
+    return results.getTopWordsForTopic(topic, numWords);
   }
 
   public WeightedWord[] getTopWeightedWordsForTopic(int topic) {
     return getTopWeightedWordsForTopic(topic, 1000);
   }
   
-  @SuppressWarnings("unchecked")
   public WeightedWord[] getTopWeightedWordsForTopic(int topic, int numWords) {
-    if (topic > k) {
-      System.err.println("You must enter a topic number from 0 to " + k);
+    TopicModelSnapshot results = getCheckedSnapshot(topic, numWords);
+    if (results == null) {
       return null;
     }
-      
-    if (lda == null) {
+    return results.getTopWeightedWordsForTopic(topic, numWords);
+  }
+  
+  /**
+   * The fraction of the document's words assigned to each topic, as of the last estimation or
+   * load.
+   */
+  public float[] getTopicProportionsForDocument(int documentIndex) {
+    TopicModelSnapshot results = snapshot;
+    if (results == null) {
+      System.err.println("You must first create the model and extract the topics.");
+      return null;
+    }
+    return results.getTopicProportionsForDocument(documentIndex);
+  }
+  
+  /**
+   * The topic proportions of every document as one sparse matrix, as of the last estimation or
+   * load. See DocumentTopicMatrix for dense and memory-mapped forms.
+   */
+  public DocumentTopicMatrix getDocumentTopicMatrix() {
+    TopicModelSnapshot results = snapshot;
+    if (results == null) {
+      System.err.println("You must first create the model and extract the topics.");
+      return null;
+    }
+    return results.getDocumentTopicMatrix();
+  }
+  
+  // SIMILARITY SEARCH -----------------------------------------------------------------------------
+  
+  /**
+   * Sets how documents are compared by topic: TopicSimilarityIndex.HELLINGER (the default),
+   * TopicSimilarityIndex.JENSEN_SHANNON or TopicSimilarityIndex.COSINE.
+   */
+  public synchronized void setSimilarityMeasure(int measure) {
+    if (measure < TopicSimilarityIndex.HELLINGER || measure > TopicSimilarityIndex.COSINE) {
+      System.err.println("Unknown similarity measure " + measure + ", keeping the current one.");
+      return;
+    }
+    similarityMeasure = measure;
+    similarityIndex = null;
+  }
+  
+  /**
+   * Corpora with at least this many documents are searched with an approximate (hashed) index
+   * rather than an exact scan. Defaults to 200,000.
+   */
+  public synchronized void setApproximateSimilarityThreshold(int numDocuments) {
+    approximateSimilarityThreshold = numDocuments;
+    similarityIndex = null;
+  }
+  
+  /**
+   * Returns the documents whose topic proportions are closest to the given document's, closest
+   * first, not including the document itself.
+   */
+  public SimilarDocument[] findSimilarDocuments(int documentIndex, int numDocuments) {
+    if (numDocuments < 0) {
+      System.err.println("You must ask for at least 0 documents, not " + numDocuments);
+      return null;
+    }
+    TopicSimilarityIndex index = getTopicSimilarityIndex();
+    if (index == null) {
+      return null;
+    }
+    if (documentIndex < 0 || documentIndex >= index.getMatrix().getNumDocuments()) {
+      System.err.println("You must enter a document number from 0 to " + 
+                         (index.getMatrix().getNumDocuments() - 1));
+      return null;
+    }
+    return index.findSimilarDocuments(documentIndex, numDocuments);
+  }
+  
+  /**
+   * Returns the documents whose topic proportions are closest to the given mixture (one weight
+   * per topic, summing to 1), closest first.
+   */
+  public SimilarDocument[] findDocumentsNearTopicMixture(float[] topicMixture, int numDocuments) {
+    if (numDocuments < 0) {
+      System.err.println("You must ask for at least 0 documents, not " + numDocuments);
+      return null;
+    }
+    TopicSimilarityIndex index = getTopicSimilarityIndex();
+    if (index == null) {
+      return null;
+    }
+    if (topicMixture.length != index.getMatrix().getNumTopics()) {
+      System.err.println("The topic mixture must have one weight for each of the " +
+                         index.getMatrix().getNumTopics() + " topics.");
+      return null;
+    }
+    return index.findNearest(topicMixture, numDocuments);
+  }
+  
+  /**
+   * Returns the similarity index for the current results, building it on first use after each
+   * estimation or load.
+   */
+  public synchronized TopicSimilarityIndex getTopicSimilarityIndex() {
+    TopicModelSnapshot results = snapshot;
+    if (results == null) {
       System.err.println("You must first create the model and extract the topics.");
       return null;
     }
     
-    if (topicSortedWordsCache == null) {
-      topicSortedWordsCache = lda.getSortedWords();
+    if (similarityIndex == null || similarityIndexSnapshot != results) {
+      DocumentTopicMatrix matrix = results.getDocumentTopicMatrix();
+      if (matrix.getNumDocuments() >= approximateSimilarityThreshold) {
+        similarityIndex = new TopicSimilarityIndex(matrix, similarityMeasure, 8, 12, 0);
+      } else {
+        similarityIndex = new TopicSimilarityIndex(matrix, similarityMeasure);
+      }
+      similarityIndexSnapshot = results;
     }
-      
-    TreeSet<IDSorter> sortedWords = topicSortedWordsCache[topic];
-    Iterator<IDSorter> iterator = sortedWords.iterator();
-    int word = 1;
-
-    ArrayList<WeightedWord> words = new ArrayList<WeightedWord>(sortedWords.size());
-    while (iterator.hasNext() && word < numWords) {
-      IDSorter info = iterator.next();
-      WeightedWord wword = new WeightedWord((String)lda.getAlphabet().lookupObject(info.getID()),
-                                            (float)info.getWeight());
-      words.add(wword);
-      word++;
+    return similarityIndex;
+  }
+  
+  /**
+   * Returns the results of the most recent estimation or model load, or null if there are none
+   * yet. The snapshot never changes, so it can be queried from other threads while 
+   * extractTopicsFromDocuments or loadExistingModel runs again; call this again to see newer
+   * results.
+   */
+  public TopicModelSnapshot getResults() {
+    return snapshot;
+  }
+  
+  private TopicModelSnapshot getCheckedSnapshot(int topic, int numWords) {
+    if (numWords < 0) {
+      System.err.println("You must ask for at least 0 top words, not " + numWords);
+      return null;
+    }
+    TopicModelSnapshot results = snapshot;
+    if (results == null) {
+      System.err.println("You must first create the model and extract the topics.");
+      return null;
+    }
+    
+    if (topic < 0 || topic >= results.getNumTopics()) {
+      System.err.println("You must enter a topic number from 0 to " + (results.getNumTopics() - 1));
+      return null;
     }
-    return words.toArray(new WeightedWord[0]);
+    return results;
+  }
+  
+  private void publishSnapshot() {
+    snapshot = new TopicModelSnapshot(lda, ++snapshotVersion, numThreads);
   }
   
   public int getNumProcessedDocuments() {
@@ -451,76 +834,72 @@ public class Wordsmith {
   }
   
   public TopicWordAssignment[] getTopicWordAssignmentsForDocument(int documentIndex) {
+    DocumentTopicCursor cursor = getDocumentTopicCursor();
+    if (cursor == null) {
+      return null;
+    }
+
+    cursor.moveToDocument(documentIndex);
+    TopicWordAssignment[] assignments = new TopicWordAssignment[cursor.getLength()];
+    for (int i = 0; cursor.next(); i++) {
+      assignments[i] = cursor.isStopword()
+                       ? new TopicWordAssignment(cursor.getWord())
+                       : new TopicWordAssignment(cursor.getWord(), cursor.getTopic());
+    }
+    return assignments;
+  }
+  
+  /**
+   * Returns a reusable cursor over the words and topic assignments of any document, which unlike
+   * getTopicWordAssignmentsForDocument allocates nothing per word. Use one cursor per thread.
+   */
+  public DocumentTopicCursor getDocumentTopicCursor() {
     if (lda == null) {
       System.err.println("You must first create the model and extract the topics.");
       return null;
     }
 
-    ArrayList<TopicAssignment> data = lda.getData();
-    FeatureSequence tokenSequence = (FeatureSequence) data.get(documentIndex).instance.getData();
-    LabelSequence topicSequence = (LabelSequence) data.get(documentIndex).topicSequence;
-    
-    if (!cacheTokenization || cachedTokenSequences == null) {
+    if ((!cacheTokenization || cachedTokenSequences == null) && !warnedAboutUncachedTokens) {
       System.out.println("WARNING: NOT using cached token sequences; " +
-      		"output will be heavily tokenized with stopwords removed!");
-      TopicWordAssignment[] assignments = new TopicWordAssignment[topicSequence.getLength()];
-      for (int pi = 0; pi < topicSequence.getLength(); pi++) {
-        int type = tokenSequence.getIndexAtPosition(pi);
-        int topic = topicSequence.getIndexAtPosition(pi);
-        assignments[pi] = new TopicWordAssignment((String) lda.getAlphabet().lookupObject(type),
-                                                  topic); 
-      }
-      return assignments;
+          "output will be heavily tokenized with stopwords removed!");
+      warnedAboutUncachedTokens = true;
     }
-    
-    // Use the cached tokens
-    TokenSequence originalTokens = cachedTokenSequences.get(documentIndex);
-    TopicWordAssignment[] assignments = new TopicWordAssignment[originalTokens.size()];
-    assert tokenSequence.size() <= originalTokens.size();
-
-    int pi = 0;
-    
-    // Iterate through each of the original tokens and inserting them into the new TopicWordAssignment
-    // vector with either their assigned topic, or identify as a stopword.
-    for (int i = 0; i < originalTokens.size(); i++) {
-      Token token = originalTokens.get(i);
-      //System.out.println("at token " + i + "=" + token.getText());
-      if (token.getProperties() != null && token.getProperty("stopword").equals(true)) {
-        // Stop word... add the null topic assignment 
-        //System.out.println(token.getText() + " is stopword...continuing");
-        assignments[i] = new TopicWordAssignment(token.getText());
-        continue;
-      }
-      
-      int type = tokenSequence.getIndexAtPosition(pi);
-      int topic = topicSequence.getIndexAtPosition(pi);
-      //System.out.println("Comparing against pi=" + pi + "=" + (String) lda.getAlphabet().lookupObject(type));
-      if (token.getText().equals((String) lda.getAlphabet().lookupObject(type))) {
-        // They line up... save the assignment and iterate to the next lda token
-        //System.out.println("match...assigning & incrementing pi");
-        assignments[i] = new TopicWordAssignment(token.getText(), topic);
-        pi += 1;
-        if (pi >= tokenSequence.getLength()) {
-          //System.out.println("hit end of pi... just putting in rest");
-          // Hit the end of valid tokens.. just add the rest and be done with it.
-          while (++i < originalTokens.size()) {
-            token = originalTokens.get(i);
-            assignments[i] = new TopicWordAssignment(token.getText());
-          }
-          break;
-        }
-      } else {
-        // Stop word / misc token... 
-        assignments[i] = new TopicWordAssignment(token.getText());
-      }
-    }
-    return assignments;
+    return new DocumentTopicCursor(lda, cacheTokenization ? cachedTokenSequences : null);
   }
   
   // ADD DOCUMENTS ---------------------------------------------------------------------------------
   
+  private boolean tokenizeBytes = true;
+  private Utf8Bytes2StopwordlessFeatureSequence byteTokenizer = null;
+  private IngestionCache ingestionCache = null;
+  private boolean usingIngestionCache = false;
+  
+  /**
+   * Files are normally tokenized straight from their bytes, without decoding them into Strings,
+   * which is much faster and gives the same words (see Utf8Bytes2StopwordlessFeatureSequence).
+   * This happens unless HTML is being filtered, tweets tokenized, words stemmed, hashed or pruned
+   * while adding, or tokenization cached; pass false to always use the regular Mallet pipe.
+   */
+  public void useByteLevelTokenization(boolean tokenizeBytes) {
+    this.tokenizeBytes = tokenizeBytes;
+  }
+  
+  /**
+   * Keeps the words of every file added in the given cache file, and reuses them the next time
+   * the same file is added, as long as it hasn't changed, instead of reading and tokenizing it
+   * again. Worth it for directories that are added over and over with only a few files changing
+   * in between. Files inside archives, and documents added from strings, lines files or tweet
+   * feeds, are always tokenized. The cache is saved after each directory or file is added, and
+   * isn't used while tokenization is cached or words are hashed or pruned while adding. See
+   * IngestionCache.
+   */
+  public void useIngestionCache(String filepath) {
+    ingestionCache = new IngestionCache(new File(filepath));
+  }
+  
   private boolean cacheTokenization = false;
   private ArrayList<TokenSequence> cachedTokenSequences;
+  private boolean warnedAboutUncachedTokens = false;
   public void cacheTokenizationOfDocuments(boolean cacheTokenization) {
     if (!cacheTokenization) {
       cachedTokenSequences = null;
@@ -531,44 +910,107 @@ public class Wordsmith {
     }
   }
   
-  private SerialPipes makeNewInstancePipe() {
+  // makeNewInstancePipe's stages from here on use the instance list's vocabulary, so they have
+  // to see documents one at a time and in order; the ones before can run in parallel.
+  private static final int FIRST_VOCABULARY_STAGE = 2;
+  
+  SerialPipes makeNewInstancePipe() {
+    rareWordMarker = rareWordCounts == null ? null
+        : new TokenSequenceMarkRareWords(rareWordCounts, rareWordThreshold, hashedVocabulary,
+                                         TokenSequenceMarkRareWords.DEFAULT_MAX_PENDING);
     return new SerialPipes (
         new Pipe[] {
           new SaveDataInSource(),
 //          new PrintInputAndTarget ("SaveDataInSource"),
+          makeTokenizingPipe(),
+          (cacheTokenization
+                  ? (Pipe) new TokenSequenceCacher(cachedTokenSequences)
+                  : (Pipe) new Noop()),
+          (rareWordMarker != null ? (Pipe) rareWordMarker : (Pipe) new Noop()),
+          (hashedVocabulary != null
+                  ? (Pipe) new TokenSequence2HashedFeatureSequence(hashedVocabulary)
+                                .setMetrics(metrics)
+                  : (Pipe) new TokenSequence2StopwordlessFeatureSequence().setMetrics(metrics)),
+//          new PrintInputAndTarget ("TokenSequence2FeatureSequence"),
+        });
+  }
+  
+  /**
+   * The part of makeNewInstancePipe that turns raw input into a lowercased TokenSequence with
+   * stopwords marked, following the current HTML and stopword settings.
+   */
+  SerialPipes makeTokenizingPipe() {
+    return new SerialPipes (
+        new Pipe[] {
           new Input2CharSequence(),
 //          new PrintInputAndTarget ("Input2CharSequence"),
           (filterHtml
-           ? (Pipe) new CharSequenceRemoveHTML()
+           ? (Pipe) new CharSequenceStripHTML()
            : (Pipe) new Noop()),
-//          new PrintInputAndTarget ("CharSequenceRemoveHTML (" + filterHtml + ") or noop"),
-          new CharSequence2TokenSequence(),
+//          new PrintInputAndTarget ("CharSequenceStripHTML (" + filterHtml + ") or noop"),
+          (tweetTokens
+           ? (Pipe) new CharSequence2TweetTokenSequence()
+           : (Pipe) new CharSequence2TokenSequence()),
 //          new PrintInputAndTarget ("CharSequence2TokenSequence"), 
           new TokenSequenceLowercase(),
 //          new PrintInputAndTarget ("TokenSequenceLowercase"),
-          (addedEnglishStopwords
-           ? (Pipe) new TokenSequenceMarkStopwords(stopwordsList)
-                        .addStopWords(Stopwords.augmentedEnglishStopWords)
-                        .addStopWords(Stopwords.malletEnglishStopwords)
-           : (Pipe) new TokenSequenceMarkStopwords(stopwordsList)),
+          (stemWords
+           ? (Pipe) new TokenSequenceStem(stopwordsList, stems,
+                                          TokenSequenceStem.DEFAULT_MAX_CACHED)
+           : (Pipe) new Noop()),
+          new TokenSequenceMarkStopwords(stopwordsList),
 //          new PrintInputAndTarget ("TokenSequenceRemoveStopwords (" + addedEnglishStopwords + ") or TokenSequenceRemoveCustomStopwords"), // xxx
           (filterHtml
                   ? (Pipe) new TokenSequenceMarkStopwords(Stopwords.htmlStopWords)
                   : (Pipe) new Noop()),
-          (cacheTokenization
-                  ? (Pipe) new TokenSequenceCacher(cachedTokenSequences)
-                  : (Pipe) new Noop()),
-          new TokenSequence2StopwordlessFeatureSequence(),
-//          new PrintInputAndTarget ("TokenSequence2FeatureSequence"),
         });
   }
   
+  /**
+   * Adds every file under the directory as a document. Compressed files and archives (.gz, .tar,
+   * .tar.gz, .tgz, .zip) are read in place, each file inside an archive becoming a document, and
+   * the directory may itself be one of those. See ArchiveIterator.
+   */
   public void addDocumentsInDirectory(String directory) {
-    if (ilist == null) { ilist = new InstanceList (makeNewInstancePipe());}
-    boolean removeCommonPrefix=true;
-    ilist.addThruPipe(
-        new FileIterator(directory, FileIterator.STARTING_DIRECTORIES, removeCommonPrefix));
+    addDocumentsInDirectoryCounted(directory);
+  }
+  
+  private int addDocumentsInDirectoryCounted(String directory) {
+    if (!startAddingDocuments()) {
+      return 0;
+    }
+    int sizeBefore = ilist.size();
+    startIngestionCache();
+    int hitsBefore = usingIngestionCache ? ingestionCache.getHits() : 0;
+    ArchiveIterator documents = new ArchiveIterator(new File(directory));
+    try {
+      addThruPipe(documents);
+      if (usingIngestionCache) {
+        System.out.println("Reused " + (ingestionCache.getHits() - hitsBefore) + " of " +
+                           (ilist.size() - sizeBefore) + " documents from the ingestion cache.");
+      }
+    } finally {
+      documents.close();
+      saveIngestionCache();
+    }
+    metrics.recordDocumentsIngested(ilist.size() - sizeBefore);
     setInstances = true;
+    return ilist.size() - sizeBefore;
+  }
+  
+  /**
+   * Makes the instance list on first use.
+   *
+   * @return false, after saying so, once topics have been extracted: the documents have been
+   *         pruned into a vocabulary of their own, and the model already holds them
+   */
+  private boolean startAddingDocuments() {
+    if (documentsPrepared) {
+      System.err.println("Sorry, documents can't be added once topics have been extracted.");
+      return false;
+    }
+    if (ilist == null) { ilist = new InstanceList (makeNewInstancePipe());}
+    return true;
   }
   
   public void addDocumentInFile(String filepath) {
@@ -577,20 +1019,387 @@ public class Wordsmith {
 
 
   public void addDocumentInFile(File f) {
-    if (ilist == null) { ilist = new InstanceList (makeNewInstancePipe());}
-    ilist.addThruPipe(new Instance(f, null, f.toURI(), null));
+    if (!startAddingDocuments()) {
+      return;
+    }
+    int sizeBefore = ilist.size();
+    startIngestionCache();
+    try {
+      addThruPipe(new Instance(f, null, f.toURI(), null));
+    } finally {
+      saveIngestionCache();
+    }
+    metrics.recordDocumentsIngested(ilist.size() - sizeBefore);
     setInstances = true;
   }
   
   public void addDocumentInString(String document) {
-    if (ilist == null) { ilist = new InstanceList (makeNewInstancePipe());}
+    if (!startAddingDocuments()) {
+      return;
+    }
     //System.out.println("Adding document: " + document);
-    ilist.addThruPipe(new Instance(document, null, "added_document", null));
+    int sizeBefore = ilist.size();
+    addThruPipe(new Instance(document, null, "added_document", null));
+    metrics.recordDocumentsIngested(ilist.size() - sizeBefore);
     setInstances = true;
   }
+  
+  public void addDocumentsInJsonLinesFile(String filepath) {
+    addDocumentsInLinesFile(filepath, new LineCorpusReader(LineCorpusReader.JSON_LINES));
+  }
+  
+  public void addDocumentsInCsvFile(String filepath) {
+    addDocumentsInLinesFile(filepath, new LineCorpusReader(LineCorpusReader.CSV));
+  }
+  
+  public void addDocumentsInTsvFile(String filepath) {
+    addDocumentsInLinesFile(filepath, new LineCorpusReader(LineCorpusReader.TSV));
+  }
+  
+  /**
+   * Adds one document per line of a big JSON Lines, CSV or TSV file, in line order. Lines are
+   * parsed and tokenized in parallel on as many threads as useMulticore asked for. See
+   * LineCorpusReader for the formats and for choosing the text and id fields.
+   */
+  public void addDocumentsInLinesFile(String filepath, LineCorpusReader reader) {
+    if (!startAddingDocuments()) {
+      return;
+    }
+    final ArrayList<Pipe> stages = ((SerialPipes) ilist.getPipe()).pipes();
+    int sizeBefore = ilist.size();
+    try {
+      reader.read(new File(filepath), this, numThreads, new LineCorpusReader.Sink() {
+        public void add(Instance instance) {
+          for (int i = FIRST_VOCABULARY_STAGE; i < stages.size(); i++) {
+            instance = stages.get(i).pipe(instance);
+          }
+          if (duplicateFilter == null) {
+            ilist.add(instance);
+          } else {
+            addUnlessDuplicate(instance);
+          }
+        }
+      });
+    } catch (IOException e) {
+      System.err.println("Unable to read documents from " + filepath + ": " + e.getMessage());
+    }
+    metrics.recordDocumentsIngested(ilist.size() - sizeBefore);
+    setInstances = ilist.size() > 0;
+  }
+  
+  /**
+   * Adds every tweet in a Twitter XML feed (such as Pwitter saves) as a document, streaming it
+   * rather than loading it whole, so feeds of any size can be used. See TweetXmlReader.
+   */
+  public void addTweetsInXmlFile(String filepath) {
+    if (!startAddingDocuments()) {
+      return;
+    }
+    int sizeBefore = ilist.size();
+    TweetXmlReader reader = null;
+    try {
+      reader = new TweetXmlReader(new File(filepath));
+      addThruPipe(reader.instances());
+    } catch (Exception e) {
+      System.err.println("Unable to read tweets from " + filepath + ": " + e.getMessage());
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          // Nothing left to read anyway.
+        }
+      }
+    }
+    metrics.recordDocumentsIngested(ilist.size() - sizeBefore);
+    setInstances = ilist.size() > 0;
+  }
+  
+  private void addThruPipe(Instance instance) {
+    Instance piped = usingIngestionCache && instance.getData() instanceof File
+        ? pipeThruIngestionCache(instance)
+        : pipeWithoutIngestionCache(instance);
+    if (duplicateFilter == null) {
+      ilist.add(piped);
+    } else {
+      addUnlessDuplicate(piped);
+    }
+  }
+  
+  private Instance pipeWithoutIngestionCache(Instance instance) {
+    return tokenizesBytes(instance)
+        ? byteTokenizer.pipe(instance)
+        : ilist.getPipe().instanceFrom(instance);
+  }
+  
+  private Instance pipeThruIngestionCache(Instance instance) {
+    File file = (File) instance.getData();
+    try {
+      // Taken before reading, and checked again after, so a file changed while it's read isn't
+      // stored at all.
+      long size = file.length();
+      long modified = file.lastModified();
+      FeatureSequence words =
+          ingestionCache.lookup(file, size, modified, null, ilist.getDataAlphabet());
+      byte[] contents = null;
+      byte[] hash = null;
+      if (words == null) {
+        // Read once, for both the hash and the tokenizer.
+        contents = IngestionCache.read(file, size);
+        hash = IngestionCache.hash(contents);
+        words = ingestionCache.lookup(file, size, modified, hash, ilist.getDataAlphabet());
+      }
+      if (words != null) {
+        metrics.recordTokens(words.getLength(), 0);
+        metrics.recordDocumentFromCache();
+        return new Instance(words, null, instance.getName(), file);
+      }
+
+      Instance piped;
+      if (tokenizesBytes(instance)) {
+        piped = byteTokenizer.pipe(
+            new Instance(contents, instance.getTarget(), instance.getName(), file));
+      } else {
+        // Input2CharSequence reads files in the default charset, so decode them the same way.
+        piped = ilist.getPipe().instanceFrom(
+            new Instance(new String(contents, Charset.defaultCharset()), instance.getTarget(),
+                         instance.getName(), file));
+      }
+      boolean locked = piped.isLocked();
+      piped.unLock();
+      piped.setSource(file);
+      if (locked) {
+        piped.lock();
+      }
+      if (file.length() == size && file.lastModified() == modified) {
+        ingestionCache.store(file, size, modified, hash, (FeatureSequence) piped.getData());
+      }
+      return piped;
+    } catch (IOException e) {
+      System.err.println("Unable to use the ingestion cache for " + file + ": " + e.getMessage());
+      return pipeWithoutIngestionCache(instance);
+    }
+  }
+  
+  /**
+   * Decides whether the ingestion cache can be used for the documents about to be added, and
+   * empties it if they'd be tokenized differently from the ones in it.
+   */
+  private void startIngestionCache() {
+    usingIngestionCache = false;
+    if (ingestionCache == null || !(ilist.getPipe() instanceof SerialPipes)
+        || ((SerialPipes) ilist.getPipe()).size() <= FIRST_VOCABULARY_STAGE) {
+      return;
+    }
+    if (cacheTokenization || hashedVocabulary != null || rareWordCounts != null) {
+      System.err.println("The ingestion cache isn't used while tokenization is cached or words " +
+                         "are hashed or pruned while adding.");
+      return;
+    }
+    String[] stopwords = stopwordsList.toArray(new String[stopwordsList.size()]);
+    Arrays.sort(stopwords);
+    ingestionCache.checkSettings("html=" + filterHtml + " tweets=" + tweetTokens +
+                                 " stem=" + stemWords + " english=" + addedEnglishStopwords +
+                                 " stopwords=" + Arrays.hashCode(stopwords));
+    usingIngestionCache = true;
+  }
+  
+  private void saveIngestionCache() {
+    if (!usingIngestionCache) {
+      return;
+    }
+    usingIngestionCache = false;
+    try {
+      ingestionCache.save();
+    } catch (IOException e) {
+      System.err.println("Unable to save the ingestion cache: " + e.getMessage());
+    }
+  }
+  
+  private void addThruPipe(Iterator<Instance> instances) {
+    while (instances.hasNext()) {
+      addThruPipe(instances.next());
+    }
+  }
+  
+  /**
+   * Whether a document can skip the regular pipe for the byte-level tokenizer, which gives the
+   * same features: only for files, and only when nothing needs the text or its tokens.
+   */
+  private boolean tokenizesBytes(Instance instance) {
+    if (!tokenizeBytes || filterHtml || tweetTokens || stemWords || cacheTokenization
+        || hashedVocabulary != null || rareWordCounts != null
+        || !(instance.getData() instanceof File)
+        || !(ilist.getPipe() instanceof SerialPipes)
+        || ((SerialPipes) ilist.getPipe()).size() <= FIRST_VOCABULARY_STAGE) {
+      return false;
+    }
+    if (byteTokenizer == null || byteTokenizer.getDataAlphabet() != ilist.getDataAlphabet()) {
+      // The regular pipe's stopword stage shares stopwordsList, so both drop the same words.
+      byteTokenizer = new Utf8Bytes2StopwordlessFeatureSequence(ilist.getDataAlphabet(),
+                                                                stopwordsList).setMetrics(metrics);
+    }
+    return true;
+  }
+  
+  private void addUnlessDuplicate(Instance instance) {
+    int original = duplicateFilter.check((FeatureSequence) instance.getData(), ilist.size());
+    if (original < 0) {
+      ilist.add(instance);
+      return;
+    }
+    if (collapseDuplicates) {
+      ilist.setInstanceWeight(original, ilist.getInstanceWeight(original) + 1);
+    }
+    if (cacheTokenization) {
+      // The cacher has already kept this document's tokens.
+      cachedTokenSequences.remove(cachedTokenSequences.size() - 1);
+    }
+    metrics.recordDuplicateDropped();
+  }
+  
+  /**
+   * @return 1, or with collapseNearDuplicateDocuments, 1 plus the number of near-duplicates of
+   *         the document that were folded into it
+   */
+  public double getDocumentWeight(int documentIndex) {
+    return ilist.getInstanceWeight(documentIndex);
+  }
+  // ASYNCHRONOUS ----------------------------------------------------------------------------------
+  
+  private SerialExecutor asyncQueue = null;
+  
+  /**
+   * Sets where asynchronous operations run. By default they get their own daemon threads, so a
+   * sketch can still exit while one is running. Whatever the executor, a Wordsmith's
+   * asynchronous operations run one at a time in the order they were started.
+   */
+  public synchronized void setExecutor(Executor executor) {
+    if (asyncQueue == null) {
+      asyncQueue = new SerialExecutor(executor);
+    } else {
+      asyncQueue.setExecutor(executor);
+    }
+  }
+  
+  private synchronized SerialExecutor getAsyncQueue() {
+    if (asyncQueue == null) {
+      asyncQueue = new SerialExecutor(Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "wordsmith-async");
+          thread.setDaemon(true);
+          return thread;
+        }
+      }));
+    }
+    return asyncQueue;
+  }
+  
+  /**
+   * Queues a task of your own behind the asynchronous operations already started, for example
+   * to export results once training has finished. Its result or exception comes back through the
+   * Future. If the executor refuses the task, the Future fails with a
+   * RejectedExecutionException.
+   */
+  public <T> WordsmithFuture<T> runAsync(Callable<T> task) {
+    WordsmithFuture<T> future = new WordsmithFuture<T>(task);
+    getAsyncQueue().execute(future);
+    return future;
+  }
+  
+  /**
+   * Starts addDocumentsInDirectory in the background. The Future gives the number of documents
+   * added, or throws whatever went wrong reading them. See WordsmithFuture for getting called
+   * back instead of waiting.
+   *
+   * Don't add documents or change settings directly while asynchronous operations are pending;
+   * queue the change with runAsync instead.
+   */
+  public WordsmithFuture<Integer> addDocumentsInDirectoryAsync(final String directory) {
+    return runAsync(new Callable<Integer>() {
+      public Integer call() {
+        return addDocumentsInDirectoryCounted(directory);
+      }
+    });
+  }
+  
+  public WordsmithFuture<TopicModelSnapshot> extractTopicsFromDocumentsAsync() {
+    return extractTopicsFromDocumentsAsync(new EstimationHandle());
+  }
+  
+  /**
+   * Starts extractTopicsFromDocuments in the background. The Future gives the new results once
+   * they have been published and saved. Instead of printing problems it throws them: an
+   * IllegalStateException if there is no model or there are no documents, or the IOException
+   * from estimation.
+   *
+   * Cancelling the Future cancels the handle, so estimation stops at the next iteration and
+   * still saves what it has; the Future itself reports the cancellation straight away.
+   */
+  public WordsmithFuture<TopicModelSnapshot> extractTopicsFromDocumentsAsync(
+      EstimationHandle handle) {
+    final EstimationHandle estimation = handle != null ? handle : new EstimationHandle();
+    WordsmithFuture<TopicModelSnapshot> future = new WordsmithFuture<TopicModelSnapshot>(
+        new Callable<TopicModelSnapshot>() {
+          public TopicModelSnapshot call() throws IOException {
+            String problem = whyLdaCantStart();
+            if (problem != null) {
+              throw new IllegalStateException(problem);
+            }
+            return estimateTopics(estimation);
+          }
+        }) {
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        estimation.cancel();
+        // Interrupting could break Mallet's sampling threads; the handle stops it cleanly.
+        return super.cancel(false);
+      }
+    };
+    getAsyncQueue().execute(future);
+    return future;
+  }
+  
+  /**
+   * Starts loadExistingModel in the background. The Future gives the loaded model's results, or
+   * throws why it couldn't be read.
+   */
+  public WordsmithFuture<TopicModelSnapshot> loadExistingModelAsync(final String file) {
+    return runAsync(new Callable<TopicModelSnapshot>() {
+      public TopicModelSnapshot call() throws Exception {
+        return restoreModel(file);
+      }
+    });
+  }
 
   // MISC ------------------------------------------------------------------------------------------
   
+  /**
+   * Counters and timings for ingestion, pruning and estimation. Safe to poll from another thread.
+   */
+  public WordsmithMetrics getMetrics() {
+    return metrics;
+  }
+  
+  /**
+   * Turns metrics collection on (the default) or off.
+   */
+  public void enableMetrics(boolean enabled) {
+    metrics.setEnabled(enabled);
+  }
+  
+  /**
+   * Calls the listener after every sampling iteration of a model made with createNewModel, with
+   * the iteration number, timings and the model's current top words. Listeners can be added or
+   * removed at any time, including from another thread while the model is running.
+   */
+  public void addTrainingListener(TrainingListener listener) {
+    trainingListeners.add(listener);
+  }
+  
+  public void removeTrainingListener(TrainingListener listener) {
+    trainingListeners.remove(listener);
+  }
+  
   /**
    * return the version of the library.
    * 
@@ -633,16 +1442,9 @@ public class Wordsmith {
     wordsmith.pruneWordsOccurringLessThanThreshold(3);
 
     // Load the Tweets
-    Pwitter twitter = new Pwitter(new PApplet());
     String user = "johnmaeda";
-    ArrayList tweets = twitter.loadTweets("data/" + user + ".xml");
     wordsmith.removeWordFromDocuments(user);
-
-    for (int i = 0; i < tweets.size(); i++) {
-      Pweet tweet = (Pweet) tweets.get(i);
-      String tweetText = tweet.getText();
-      wordsmith.addDocumentInString(tweetText);
-    }
+    wordsmith.addTweetsInXmlFile("data/" + user + ".xml");
 
     // Fire it up!
     wordsmith.extractTopicsFromDocuments();
@@ -672,8 +1474,7 @@ public class Wordsmith {
     }
 
     // Grab a random tweet and go through its assignments.
-    Pweet tweet = (Pweet) tweets.get(5);
-    System.out.println("\n\n\nTopic assignments per word in tweet: " + tweet.getText());
+    System.out.println("\n\n\nTopic assignments per word in tweet 5:");
     TopicWordAssignment[] assignments = wordsmith.getTopicWordAssignmentsForDocument(5);
     for (int i = 0; i < assignments.length; i++) {
       TopicWordAssignment assignment = assignments[i];
@@ -0,0 +1,153 @@
+package wordsmith;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The Future returned by Wordsmith's asynchronous operations. Besides waiting on get(), you can
+ * ask to be called back when the operation ends, or chain a step onto its result, so ingesting,
+ * training and exporting can follow one another without any thread blocking:
+ *
+ * <pre>
+ * wordsmith.addDocumentsInDirectoryAsync(dir);
+ * wordsmith.extractTopicsFromDocumentsAsync()
+ *     .then(new WordsmithFuture.Step&lt;TopicModelSnapshot, File&gt;() {
+ *       public File apply(TopicModelSnapshot results) throws Exception {
+ *         return export(results);
+ *       }
+ *     })
+ *     .whenDone(new WordsmithFuture.Callback&lt;File&gt;() {
+ *       public void succeeded(File file) { println("Wrote " + file); }
+ *       public void failed(Throwable error) { println("Failed: " + error); }
+ *     });
+ * </pre>
+ *
+ * Callbacks and steps run on the thread that ends the operation (one of Wordsmith's
+ * asynchronous threads, or whichever thread cancels it), or straight away on the calling thread
+ * if it has already ended. Keep them short; queue anything slow with Wordsmith.runAsync so it
+ * doesn't hold up the operations behind it.
+ */
+public class WordsmithFuture<T> extends FutureTask<T> {
+  /**
+   * Told how an asynchronous operation ended.
+   */
+  public interface Callback<T> {
+    void succeeded(T result);
+
+    /**
+     * @param error what the operation threw, or a CancellationException if it was cancelled
+     */
+    void failed(Throwable error);
+  }
+
+  /**
+   * Turns one operation's result into the next one's.
+   */
+  public interface Step<T, U> {
+    U apply(T result) throws Exception;
+  }
+
+  // Null once the operation has ended and they have been called.
+  private ArrayList<Callback<? super T>> callbacks = new ArrayList<Callback<? super T>>();
+
+  public WordsmithFuture(Callable<T> task) {
+    super(task);
+  }
+
+  /**
+   * Calls back when the operation ends, or now if it already has.
+   */
+  public WordsmithFuture<T> whenDone(Callback<? super T> callback) {
+    synchronized (this) {
+      if (callbacks != null) {
+        callbacks.add(callback);
+        return this;
+      }
+    }
+    tell(callback);
+    return this;
+  }
+
+  /**
+   * @return a Future for the step's result, which runs once this operation succeeds. If this
+   *         operation fails, so does the returned one, with the same error; if it is cancelled,
+   *         the returned one is cancelled too.
+   */
+  public <U> WordsmithFuture<U> then(final Step<? super T, U> step) {
+    final WordsmithFuture<U> next = new WordsmithFuture<U>(new Callable<U>() {
+      public U call() {
+        throw new IllegalStateException("A chained step only runs when the one before ends.");
+      }
+    });
+    whenDone(new Callback<T>() {
+      public void succeeded(T result) {
+        try {
+          next.set(step.apply(result));
+        } catch (Throwable e) {
+          next.setException(e);
+        }
+      }
+
+      public void failed(Throwable error) {
+        if (error instanceof CancellationException) {
+          next.cancel(false);
+        } else {
+          next.setException(error);
+        }
+      }
+    });
+    return next;
+  }
+
+  /**
+   * Ends the operation with the error without running it, for when it couldn't be started.
+   */
+  void fail(Throwable error) {
+    setException(error);
+  }
+
+  protected void done() {
+    ArrayList<Callback<? super T>> waiting;
+    synchronized (this) {
+      waiting = callbacks;
+      callbacks = null;
+    }
+    for (int i = 0; i < waiting.size(); i++) {
+      tell(waiting.get(i));
+    }
+  }
+
+  private void tell(Callback<? super T> callback) {
+    T result;
+    try {
+      result = get();
+    } catch (ExecutionException e) {
+      failed(callback, e.getCause());
+      return;
+    } catch (CancellationException e) {
+      failed(callback, e);
+      return;
+    } catch (InterruptedException e) {
+      // Can't happen: get() doesn't wait once the operation has ended.
+      Thread.currentThread().interrupt();
+      failed(callback, e);
+      return;
+    }
+    try {
+      callback.succeeded(result);
+    } catch (RuntimeException e) {
+      System.err.println("Callback for an asynchronous operation failed: " + e);
+    }
+  }
+
+  private static void failed(Callback<?> callback, Throwable error) {
+    try {
+      callback.failed(error);
+    } catch (RuntimeException e) {
+      System.err.println("Callback for an asynchronous operation failed: " + e);
+    }
+  }
+}
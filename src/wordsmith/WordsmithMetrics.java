@@ -0,0 +1,305 @@
+package wordsmith;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters, gauges and timers describing what a Wordsmith has done: how many documents and
+ * tokens went in, how far pruning shrank the vocabulary, how many phrases were found, and how
+ * estimation is going (time per sampling iteration, tokens sampled per second, log-likelihood,
+ * time spent writing checkpoints).
+ *
+ * Get it from Wordsmith.getMetrics() and poll it from any thread; every value is safe to read
+ * while ingestion or estimation is running. Token counts are added once per document and
+ * estimation figures once per iteration, so keeping metrics on costs next to nothing; turning
+ * them off with setEnabled(false) skips even that. Monitoring tools can read the same values over
+ * JMX after registerMBean().
+ *
+ * Per-iteration figures are available for models made with Wordsmith.createNewModel, and for
+ * ones they saved that are restored with loadExistingModel; models saved by plain Mallet are
+ * estimated without instrumentation.
+ */
+public class WordsmithMetrics implements WordsmithMetricsMBean {
+  private volatile boolean enabled = true;
+
+  private final AtomicLong documentsIngested = new AtomicLong();
+  private final AtomicLong tokensKept = new AtomicLong();
+  private final AtomicLong tokensDroppedAsStopwords = new AtomicLong();
+  private final AtomicLong duplicatesDropped = new AtomicLong();
+  private final AtomicLong documentsFromCache = new AtomicLong();
+
+  private volatile int vocabularyBeforePruning = -1;
+  private volatile int vocabularyAfterPruning = -1;
+  private volatile long pruneMillis = 0;
+  private volatile int phrasesFound = 0;
+  private volatile long phraseMillis = 0;
+
+  // Only the estimating thread writes these.
+  private volatile int iterationsCompleted = 0;
+  private volatile long lastIterationNanos = 0;
+  private volatile long totalIterationNanos = 0;
+  private volatile long tokensInModel = 0;
+  private volatile double logLikelihoodPerToken = Double.NaN;
+  private volatile long checkpoints = 0;
+  private volatile long lastCheckpointMillis = 0;
+  private volatile long totalCheckpointMillis = 0;
+  private volatile long estimateMillis = 0;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server under the given name, for example
+   * "wordsmith:type=Metrics,name=tweets".
+   */
+  public void registerMBean(String name) throws JMException {
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+  }
+
+  public void unregisterMBean(String name) throws JMException {
+    ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(name));
+  }
+
+  // INGESTION -------------------------------------------------------------------------------------
+
+  public long getDocumentsIngested() {
+    return documentsIngested.get();
+  }
+
+  public long getTokensKept() {
+    return tokensKept.get();
+  }
+
+  public long getTokensDroppedAsStopwords() {
+    return tokensDroppedAsStopwords.get();
+  }
+
+  /**
+   * @return documents not added because they were near-duplicates of earlier ones
+   */
+  public long getDuplicatesDropped() {
+    return duplicatesDropped.get();
+  }
+
+  /**
+   * @return documents whose words came from the ingestion cache rather than being tokenized
+   */
+  public long getDocumentsFromCache() {
+    return documentsFromCache.get();
+  }
+
+  void recordDocumentsIngested(int count) {
+    if (enabled) {
+      documentsIngested.addAndGet(count);
+    }
+  }
+
+  void recordDuplicateDropped() {
+    if (enabled) {
+      duplicatesDropped.incrementAndGet();
+    }
+  }
+
+  void recordDocumentFromCache() {
+    if (enabled) {
+      documentsFromCache.incrementAndGet();
+    }
+  }
+
+  void recordTokens(int kept, int dropped) {
+    if (enabled) {
+      tokensKept.addAndGet(kept);
+      tokensDroppedAsStopwords.addAndGet(dropped);
+    }
+  }
+
+  // PRUNING ---------------------------------------------------------------------------------------
+
+  /**
+   * @return the vocabulary size before the last rare-word prune, or -1 if there hasn't been one
+   */
+  public int getVocabularyBeforePruning() {
+    return vocabularyBeforePruning;
+  }
+
+  /**
+   * @return the vocabulary size after the last prune (by count or information gain), or -1
+   */
+  public int getVocabularyAfterPruning() {
+    return vocabularyAfterPruning;
+  }
+
+  /**
+   * @return the time the last prune took in total
+   */
+  public long getPruneMillis() {
+    return pruneMillis;
+  }
+
+  void recordPrune(int before, int after, long millis) {
+    if (enabled) {
+      if (before >= 0) {
+        vocabularyBeforePruning = before;
+      }
+      vocabularyAfterPruning = after;
+      pruneMillis = millis;
+    }
+  }
+
+  /**
+   * @return the number of phrases found by Wordsmith.findPhrasesInDocuments
+   */
+  public int getPhrasesFound() {
+    return phrasesFound;
+  }
+
+  /**
+   * @return the time finding and merging phrases took, not counted in getPruneMillis
+   */
+  public long getPhraseMillis() {
+    return phraseMillis;
+  }
+
+  void recordPhrases(int found, long millis) {
+    if (enabled) {
+      phrasesFound = found;
+      phraseMillis = millis;
+    }
+  }
+
+  // ESTIMATION ------------------------------------------------------------------------------------
+
+  public int getIterationsCompleted() {
+    return iterationsCompleted;
+  }
+
+  /**
+   * @return the sampling time of the last iteration, not counting checkpoints
+   */
+  public double getLastIterationMillis() {
+    return lastIterationNanos / 1e6;
+  }
+
+  public double getMeanIterationMillis() {
+    int iterations = iterationsCompleted;
+    return iterations == 0 ? 0 : totalIterationNanos / 1e6 / iterations;
+  }
+
+  /**
+   * @return tokens sampled per second in the last iteration
+   */
+  public double getTokensPerSecond() {
+    long nanos = lastIterationNanos;
+    return nanos == 0 ? 0 : tokensInModel * 1e9 / nanos;
+  }
+
+  /**
+   * @return the model log-likelihood per token, as last computed (every 10 iterations), or NaN
+   */
+  public double getLogLikelihoodPerToken() {
+    return logLikelihoodPerToken;
+  }
+
+  public long getCheckpoints() {
+    return checkpoints;
+  }
+
+  public long getLastCheckpointMillis() {
+    return lastCheckpointMillis;
+  }
+
+  public long getTotalCheckpointMillis() {
+    return totalCheckpointMillis;
+  }
+
+  /**
+   * @return the wall time of the last complete estimation, including checkpoints
+   */
+  public long getEstimateMillis() {
+    return estimateMillis;
+  }
+
+  void recordEstimationStarted(long tokens) {
+    if (enabled) {
+      iterationsCompleted = 0;
+      lastIterationNanos = 0;
+      totalIterationNanos = 0;
+      tokensInModel = tokens;
+    }
+  }
+
+  void recordIteration(long samplingNanos) {
+    if (enabled) {
+      lastIterationNanos = samplingNanos;
+      totalIterationNanos += samplingNanos;
+      iterationsCompleted++;
+    }
+  }
+
+  void recordLogLikelihood(double perToken) {
+    if (enabled) {
+      logLikelihoodPerToken = perToken;
+    }
+  }
+
+  void recordCheckpoint(long millis) {
+    if (enabled) {
+      checkpoints++;
+      lastCheckpointMillis = millis;
+      totalCheckpointMillis += millis;
+    }
+  }
+
+  void recordEstimate(long millis) {
+    if (enabled) {
+      estimateMillis = millis;
+    }
+  }
+
+  public void reset() {
+    documentsIngested.set(0);
+    tokensKept.set(0);
+    tokensDroppedAsStopwords.set(0);
+    duplicatesDropped.set(0);
+    documentsFromCache.set(0);
+    vocabularyBeforePruning = -1;
+    vocabularyAfterPruning = -1;
+    pruneMillis = 0;
+    phrasesFound = 0;
+    phraseMillis = 0;
+    iterationsCompleted = 0;
+    lastIterationNanos = 0;
+    totalIterationNanos = 0;
+    tokensInModel = 0;
+    logLikelihoodPerToken = Double.NaN;
+    checkpoints = 0;
+    lastCheckpointMillis = 0;
+    totalCheckpointMillis = 0;
+    estimateMillis = 0;
+  }
+
+  public String toString() {
+    return "documents=" + getDocumentsIngested() + " tokensKept=" + getTokensKept() +
+           " stopwords=" + getTokensDroppedAsStopwords() +
+           " duplicates=" + getDuplicatesDropped() +
+           " fromCache=" + getDocumentsFromCache() +
+           " vocabulary=" + getVocabularyBeforePruning() + "->" + getVocabularyAfterPruning() +
+           " prune=" + HumanTime.exactly(getPruneMillis()) +
+           " phrases=" + getPhrasesFound() + " (" + getPhraseMillis() + "ms)" +
+           " iterations=" + getIterationsCompleted() +
+           " meanIteration=" + Math.round(getMeanIterationMillis()) + "ms" +
+           " tokensPerSecond=" + Math.round(getTokensPerSecond()) +
+           " logLikelihood=" + getLogLikelihoodPerToken() +
+           " checkpoints=" + getCheckpoints() +
+           " (" + getTotalCheckpointMillis() + "ms)" +
+           " estimate=" + HumanTime.exactly(getEstimateMillis());
+  }
+}
@@ -0,0 +1,48 @@
+package wordsmith;
+
+/**
+ * The JMX view of WordsmithMetrics. See WordsmithMetrics.registerMBean.
+ */
+public interface WordsmithMetricsMBean {
+  boolean isEnabled();
+
+  long getDocumentsIngested();
+
+  long getTokensKept();
+
+  long getTokensDroppedAsStopwords();
+
+  long getDuplicatesDropped();
+
+  long getDocumentsFromCache();
+
+  int getVocabularyBeforePruning();
+
+  int getVocabularyAfterPruning();
+
+  long getPruneMillis();
+
+  int getPhrasesFound();
+
+  long getPhraseMillis();
+
+  int getIterationsCompleted();
+
+  double getLastIterationMillis();
+
+  double getMeanIterationMillis();
+
+  double getTokensPerSecond();
+
+  double getLogLikelihoodPerToken();
+
+  long getCheckpoints();
+
+  long getLastCheckpointMillis();
+
+  long getTotalCheckpointMillis();
+
+  long getEstimateMillis();
+
+  void reset();
+}